@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.sched;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.galeb.core.model.Backend;
+import io.galeb.services.healthchecker.topology.InMemoryCacheFactory;
+import io.galeb.services.healthchecker.topology.Topologies;
+
+/**
+ * Health writes to the Backend cache: every backend flips health and the
+ * publisher flushes them (bulk read, patch of the health field, one
+ * conditional replace per document). The in-memory cache is not an
+ * Ignite cache, so the replaces run one after the other and this
+ * measures the read and patch work, not the pipelined cluster writes.
+ * The flusher thread is not started, so each invocation does exactly one
+ * flush.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Dio.galeb.services.healthchecker.flushSize=" + Integer.MAX_VALUE)
+public class PublishBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int backends;
+
+    private HealthPublisher publisher;
+    private List<String> keys;
+    private boolean dead = false;
+
+    @Setup
+    public void setup() {
+        final InMemoryCacheFactory cacheFactory = Topologies.generate(backends);
+        publisher = new HealthPublisher(cacheFactory, Topologies.newModel(cacheFactory));
+        keys = new ArrayList<>(cacheFactory.getMap(Backend.class.getName()).keySet());
+    }
+
+    @Benchmark
+    public void publishAndFlush() {
+        dead = !dead;
+        final Backend.Health health = dead ? Backend.Health.DEAD : Backend.Health.HEALTHY;
+        keys.forEach(key -> publisher.publish(key, health));
+        publisher.flush();
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.sched;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.galeb.core.model.BackendPool;
+import io.galeb.services.healthchecker.topology.Topologies;
+import io.galeb.services.healthchecker.topology.TopologyModel;
+
+/**
+ * The reconcile pass of HealthCheckJob (getProperties and getHost of every
+ * pool, track of every backend, retain) on a scheduler that is never
+ * started, so no probe is sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReconcileBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int backends;
+
+    private TopologyModel topology;
+    private HealthCheckJob job;
+    private BackendPool pool;
+
+    @Setup
+    public void setup() {
+        topology = Topologies.newModel(Topologies.generate(backends));
+        job = new HealthCheckJob(topology, new CheckScheduler());
+        pool = topology.getPools().iterator().next();
+        job.reconcile();
+    }
+
+    @Benchmark
+    public void reconcile() {
+        job.reconcile();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Map<String, Object> getProperties() {
+        return job.getProperties(pool);
+    }
+
+}
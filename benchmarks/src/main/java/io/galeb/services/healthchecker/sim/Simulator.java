@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.sim;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.cache.Cache;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryListenerException;
+import javax.cache.event.CacheEntryUpdatedListener;
+
+import io.galeb.core.cluster.ignite.IgniteCacheFactory;
+import io.galeb.core.jcache.CacheFactory;
+import io.galeb.core.model.Backend;
+import io.galeb.core.model.BackendPool;
+import io.galeb.core.model.Rule;
+import io.galeb.services.healthchecker.Starter;
+import io.galeb.services.healthchecker.topology.BackendView;
+import io.galeb.services.healthchecker.topology.InMemoryCacheFactory;
+import io.galeb.services.healthchecker.topology.Topologies;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs the healthchecker as it ships (Starter, Ignite caches, default
+ * tester and scheduler) against a synthetic fleet served by a
+ * {@link StubFleet}. After a warm-up a share of the backends is broken
+ * with the chosen fault, and the report gives the detection latency (from
+ * the fault to the DEAD write in the Backend cache), the probe throughput
+ * and the CPU and heap used by the checker.
+ *
+ * Settings are system properties (sim.backends, sim.port, sim.fault,
+ * sim.faultRatio, sim.latency, sim.flapPeriod, sim.warmup and
+ * sim.duration, in seconds); the checker takes its usual properties.
+ */
+public final class Simulator {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final int BACKENDS = Integer.getInteger("sim.backends", 20000);
+    private static final int PORT = Integer.getInteger("sim.port", 18080);
+    private static final StubFleet.Fault FAULT = StubFleet.Fault.valueOf(System.getProperty("sim.fault", "ERROR"));
+    private static final double FAULT_RATIO = Double.parseDouble(System.getProperty("sim.faultRatio", "0.05"));
+    private static final long LATENCY = Long.getLong("sim.latency", 2000L);
+    private static final long FLAP_PERIOD = Long.getLong("sim.flapPeriod", 5000L);
+    private static final long WARMUP = Long.getLong("sim.warmup", 30L);
+    private static final long DURATION = Long.getLong("sim.duration", 120L);
+
+    private static final int LOAD_BATCH = 1000;
+
+    private static final Map<String, Long> INJECTED = new ConcurrentHashMap<>();
+    private static final Map<String, Long> DETECTED = new ConcurrentHashMap<>();
+    private static final AtomicLong FALSE_POSITIVES = new AtomicLong(0L);
+
+    private Simulator() {
+        // main class
+    }
+
+    /**
+     * Records the first DEAD write of every backend.
+     */
+    public static class DeadWriteListener implements CacheEntryUpdatedListener<String, String>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void onUpdated(Iterable<CacheEntryEvent<? extends String, ? extends String>> events)
+                throws CacheEntryListenerException {
+            final long now = System.currentTimeMillis();
+            for (CacheEntryEvent<? extends String, ? extends String> event : events) {
+                try {
+                    final BackendView backend = BackendView.fromJson(event.getKey(), event.getValue());
+                    if (backend.getHealth() == Backend.Health.DEAD && DETECTED.putIfAbsent(backend.getId(), now) == null
+                            && !INJECTED.containsKey(backend.getId())) {
+                        FALSE_POSITIVES.incrementAndGet();
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    LOGGER.error(event.getKey() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final StubFleet fleet = new StubFleet(PORT, LATENCY, FLAP_PERIOD).start();
+        LOGGER.info(Simulator.class.getSimpleName() + ": stub fleet listening on port " + PORT);
+
+        Starter.main(args);
+        final CacheFactory cacheFactory = IgniteCacheFactory.getInstance();
+        load(cacheFactory, Topologies.generate(BACKENDS, fleet::backendId, StubFleet.PATH));
+        cacheFactory.getCache(Backend.class.getName()).registerCacheEntryListener(
+                new MutableCacheEntryListenerConfiguration<>(FactoryBuilder.factoryOf(new DeadWriteListener()),
+                        null, false, false));
+
+        LOGGER.info(Simulator.class.getSimpleName() + ": warming up for " + WARMUP + " s");
+        TimeUnit.SECONDS.sleep(WARMUP);
+        DETECTED.clear();
+        FALSE_POSITIVES.set(0L);
+
+        final Sample first = new Sample(fleet);
+        final int step = FAULT_RATIO > 0.0 ? (int) Math.max(Math.round(1.0 / FAULT_RATIO), 1L) : Integer.MAX_VALUE;
+        for (int n = 0; n < BACKENDS; n += step) {
+            final String backendId = fleet.backendId(n);
+            INJECTED.put(backendId, System.currentTimeMillis());
+            fleet.setFault(backendId, FAULT);
+        }
+        LOGGER.info(Simulator.class.getSimpleName() + ": " + FAULT + " injected on " + INJECTED.size() +
+                " backends, running for " + DURATION + " s");
+
+        long maxHeap = 0L;
+        for (long second = 0; second < DURATION; second++) {
+            TimeUnit.SECONDS.sleep(1L);
+            maxHeap = Math.max(maxHeap, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        }
+        final Sample last = new Sample(fleet);
+
+        report(first, last, maxHeap);
+        fleet.stop();
+        System.exit(0);
+    }
+
+    private static void load(final CacheFactory cacheFactory, final InMemoryCacheFactory topology) {
+        final long start = System.currentTimeMillis();
+        for (Class<?> clazz : new Class<?>[] { BackendPool.class, Rule.class, Backend.class }) {
+            final Cache<String, String> cache = cacheFactory.getCache(clazz.getName());
+            final Map<String, String> batch = new HashMap<>();
+            for (Map.Entry<String, String> entry : topology.getMap(clazz.getName()).entrySet()) {
+                batch.put(entry.getKey(), entry.getValue());
+                if (batch.size() >= LOAD_BATCH) {
+                    cache.putAll(batch);
+                    batch.clear();
+                }
+            }
+            cache.putAll(batch);
+        }
+        LOGGER.info(Simulator.class.getSimpleName() + ": " + BACKENDS + " backends loaded (" +
+                (System.currentTimeMillis() - start) + " ms)");
+    }
+
+    private static void report(final Sample first, final Sample last, long maxHeap) {
+        final List<Long> latencies = new ArrayList<>();
+        INJECTED.forEach((backendId, injectedAt) -> {
+            final Long detectedAt = DETECTED.get(backendId);
+            if (detectedAt != null) {
+                latencies.add(detectedAt - injectedAt);
+            }
+        });
+        Collections.sort(latencies);
+        final double seconds = (last.nanos - first.nanos) / 1e9;
+        final double cpu = ((last.processCpu - last.stubCpu) - (first.processCpu - first.stubCpu)) / 1e9 / seconds;
+
+        System.out.println("=== " + Simulator.class.getSimpleName() + " ===");
+        System.out.printf("backends         %d (%s on %d)%n", BACKENDS, FAULT, INJECTED.size());
+        System.out.printf("detected         %d of %d, %d false positive(s)%n",
+                latencies.size(), INJECTED.size(), FALSE_POSITIVES.get());
+        System.out.printf("detection (ms)   p50 %d, p95 %d, p99 %d, max %d%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.95), percentile(latencies, 0.99),
+                percentile(latencies, 1.0));
+        System.out.printf("probes/s         %.1f%n", (last.requests - first.requests) / seconds);
+        System.out.printf("checker cpu      %.2f cores (process minus stub threads)%n", cpu);
+        System.out.printf("heap             %d MB max, %d MB now%n", maxHeap >> 20,
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20);
+    }
+
+    private static long percentile(final List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return -1L;
+        }
+        return sorted.get((int) Math.min(Math.ceil(percentile * sorted.size()) - 1, sorted.size() - 1));
+    }
+
+    private static class Sample {
+        private final long nanos = System.nanoTime();
+        private final long requests;
+        private final long processCpu;
+        private final long stubCpu;
+
+        Sample(final StubFleet fleet) {
+            final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            requests = fleet.getRequests();
+            processCpu = os instanceof com.sun.management.OperatingSystemMXBean ?
+                    ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() : 0L;
+            stubCpu = fleet.getCpuTime();
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.sim;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves any number of backends from a single port: every backend has its
+ * own loopback address (127.0.0.0/8), and the address a request came in
+ * on tells which backend it is for. Each backend answers according to its
+ * current {@link Fault}.
+ */
+public class StubFleet {
+
+    public static final String PATH = "/health";
+    public static final String BODY = "OK";
+
+    public enum Fault {
+        NONE,
+        SLOW,
+        TIMEOUT,
+        ERROR,
+        BODY_MISMATCH,
+        FLAPPING
+    }
+
+    private static final byte[] OK_BODY = BODY.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] WRONG_BODY = "MAINTENANCE".getBytes(StandardCharsets.UTF_8);
+    private static final long HANG = 60_000L; // longer than any sensible check timeout
+
+    private final int port;
+    private final long latency;
+    private final long flapPeriod;
+    private final Map<String, Fault> faults = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final Set<Long> threadIds = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger threadCount = new AtomicInteger(0);
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        final Thread thread = new Thread(r, StubFleet.class.getSimpleName() + "-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        threadIds.add(thread.getId());
+        return thread;
+    });
+
+    private HttpServer server;
+
+    public StubFleet(int port, long latency, long flapPeriod) {
+        this.port = port;
+        this.latency = latency;
+        this.flapPeriod = flapPeriod;
+    }
+
+    /**
+     * Id (http://host:port) of the n-th backend: 127.0.0.2 onwards.
+     */
+    public String backendId(int n) {
+        final int address = n + 2;
+        return "http://127." + ((address >> 16) & 0xff) + "." + ((address >> 8) & 0xff) + "." + (address & 0xff) + ":" + port;
+    }
+
+    public StubFleet start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public void setFault(String backendId, final Fault fault) {
+        if (fault == Fault.NONE) {
+            faults.remove(backendId);
+        } else {
+            faults.put(backendId, fault);
+        }
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * CPU time (ns) used so far by the stub threads, to be discounted from
+     * the process CPU time.
+     */
+    public long getCpuTime() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long total = 0L;
+        for (long id : threadIds) {
+            final long cpuTime = threads.getThreadCpuTime(id);
+            if (cpuTime > 0L) {
+                total += cpuTime;
+            }
+        }
+        return total;
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        requests.increment();
+        final InetSocketAddress local = exchange.getLocalAddress();
+        Fault fault = faults.getOrDefault("http://" + local.getAddress().getHostAddress() + ":" + port, Fault.NONE);
+        if (fault == Fault.FLAPPING) {
+            fault = (System.currentTimeMillis() / flapPeriod) % 2 == 0 ? Fault.ERROR : Fault.NONE;
+        }
+        try {
+            switch (fault) {
+                case SLOW:
+                    Thread.sleep(latency);
+                    respond(exchange, 200, OK_BODY);
+                    break;
+                case TIMEOUT:
+                    Thread.sleep(HANG);
+                    break;
+                case ERROR:
+                    respond(exchange, 503, WRONG_BODY);
+                    break;
+                case BODY_MISMATCH:
+                    respond(exchange, 200, WRONG_BODY);
+                    break;
+                default:
+                    respond(exchange, 200, OK_BODY);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void respond(final HttpExchange exchange, int status, final byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.testers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One complete check (request, status and body match, result) against an
+ * in-process HTTP stub, so the numbers are the cost of the tester and not
+ * of the network. RAW opens a new connection per check (Connection: close)
+ * and TCP only connects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TesterBenchmark {
+
+    private static final byte[] BODY = "OK".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"RESTASSURED", "ASYNC", "RAW", "TCP"})
+    public TesterType testerType;
+
+    private HttpServer server;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/health", exchange -> {
+            exchange.sendResponseHeaders(200, BODY.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(BODY);
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/health";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public CheckResult check() {
+        final CheckResult[] result = new CheckResult[1];
+        testerType.newTester()
+                  .reset()
+                  .withUrl(url)
+                  .withHost("vhost.example.com")
+                  .withStatusCode(200)
+                  .withBody("OK")
+                  .setConnectionTimeOut(5000)
+                  .onResult(r -> result[0] = r)
+                  .check();
+        if (result[0] == null || !result[0].isOk()) {
+            throw new IllegalStateException(url + " >>> " + (result[0] != null ? result[0].getCause() : "no result"));
+        }
+        return result[0];
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.topology;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.galeb.core.json.JsonObject;
+import io.galeb.core.model.Backend;
+
+/**
+ * Cost of one Backend document: the streaming read and health patch used
+ * by the checker, against the full entity round trip through JsonObject.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BackendParseBenchmark {
+
+    private String key;
+    private String json;
+
+    @Setup
+    public void setup() {
+        Topologies.generate(1).getMap(Backend.class.getName()).forEach((k, v) -> {
+            key = k;
+            json = v;
+        });
+    }
+
+    @Benchmark
+    public BackendView fromJson() throws IOException {
+        return BackendView.fromJson(key, json);
+    }
+
+    @Benchmark
+    public Object fromJsonEntity() {
+        return JsonObject.fromJson(json, Backend.class);
+    }
+
+    @Benchmark
+    public String withHealth() throws IOException {
+        return BackendView.withHealth(json, Backend.Health.DEAD);
+    }
+
+    @Benchmark
+    public String withHealthEntity() {
+        final Backend backend = (Backend) JsonObject.fromJson(json, Backend.class);
+        backend.setHealth(Backend.Health.DEAD);
+        return JsonObject.toJsonString(backend);
+    }
+
+}
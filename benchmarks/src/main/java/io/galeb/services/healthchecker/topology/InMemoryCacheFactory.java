@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.topology;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import javax.cache.Cache;
+
+import io.galeb.core.jcache.CacheFactory;
+
+/**
+ * CacheFactory backed by plain maps, so the benchmarks measure the checker
+ * and not the grid. Only the cache operations the checker uses are
+ * implemented; entry listeners are accepted and never called.
+ */
+public class InMemoryCacheFactory implements CacheFactory {
+
+    private final Map<String, Map<String, String>> maps = new ConcurrentHashMap<>();
+
+    @Override
+    public CacheFactory start() {
+        return this;
+    }
+
+    @Override
+    public Cache<String, String> getCache(String key) {
+        return asCache(key, getMap(key));
+    }
+
+    public Map<String, String> getMap(String key) {
+        return maps.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cache<String, String> asCache(final String name, final Map<String, String> map) {
+        return (Cache<String, String>) Proxy.newProxyInstance(Cache.class.getClassLoader(),
+                new Class<?>[] { Cache.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return name;
+                case "get":
+                    return map.get(args[0]);
+                case "getAll":
+                    final Map<String, String> result = new HashMap<>();
+                    for (Object key : (Set<?>) args[0]) {
+                        final String value = map.get(key);
+                        if (value != null) {
+                            result.put((String) key, value);
+                        }
+                    }
+                    return result;
+                case "containsKey":
+                    return map.containsKey(args[0]);
+                case "put":
+                    map.put((String) args[0], (String) args[1]);
+                    return null;
+                case "putAll":
+                    map.putAll((Map<String, String>) args[0]);
+                    return null;
+                case "replace":
+                    return args.length == 2 ? map.replace((String) args[0], (String) args[1]) != null :
+                                              map.replace((String) args[0], (String) args[1], (String) args[2]);
+                case "remove":
+                    return args.length == 1 ? map.remove(args[0]) != null : map.remove(args[0], args[1]);
+                case "iterator":
+                    return entries(map);
+                case "forEach":
+                    entries(map).forEachRemaining((Consumer<Cache.Entry<String, String>>) args[0]);
+                    return null;
+                case "registerCacheEntryListener":
+                case "deregisterCacheEntryListener":
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return InMemoryCacheFactory.class.getSimpleName() + "[" + name + "]";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static Iterator<Cache.Entry<String, String>> entries(final Map<String, String> map) {
+        final Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+        return new Iterator<Cache.Entry<String, String>>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Cache.Entry<String, String> next() {
+                final Map.Entry<String, String> entry = iterator.next();
+                return new Cache.Entry<String, String>() {
+                    @Override
+                    public String getKey() {
+                        return entry.getKey();
+                    }
+
+                    @Override
+                    public String getValue() {
+                        return entry.getValue();
+                    }
+
+                    @Override
+                    public <T> T unwrap(Class<T> clazz) {
+                        throw new IllegalArgumentException(clazz.getName());
+                    }
+                };
+            }
+        };
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.topology;
+
+import static io.galeb.core.model.BackendPool.PROP_HEALTHCHECK_CODE;
+import static io.galeb.core.model.BackendPool.PROP_HEALTHCHECK_PATH;
+import static io.galeb.core.model.BackendPool.PROP_HEALTHCHECK_RETURN;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import io.galeb.core.jcache.CacheFactory;
+import io.galeb.core.json.JsonObject;
+import io.galeb.core.model.Backend;
+import io.galeb.core.model.BackendPool;
+import io.galeb.core.model.Rule;
+
+/**
+ * Synthetic topologies: BACKENDS_PER_POOL backends per pool and one rule
+ * (virtual host) per pool, serialized the same way the API writes them.
+ */
+public final class Topologies {
+
+    public static final int BACKENDS_PER_POOL = 10;
+
+    private Topologies() {
+        // static only
+    }
+
+    public static InMemoryCacheFactory generate(int numBackends) {
+        return generate(numBackends, Topologies::backendId, "/health");
+    }
+
+    /**
+     * A distinct, valid address per backend: the port wraps within
+     * 1024-65023 and the host moves on every 64000 backends.
+     */
+    static String backendId(int b) {
+        return "http://127.0." + (b / 64000) + ".1:" + (1024 + b % 64000);
+    }
+
+    /**
+     * backendIds gives the id (http://host:port) of the n-th backend, so a local
+     * stub can serve them all.
+     */
+    public static InMemoryCacheFactory generate(int numBackends, final IntFunction<String> backendIds, String path) {
+        final InMemoryCacheFactory cacheFactory = new InMemoryCacheFactory();
+        final Map<String, String> pools = cacheFactory.getMap(BackendPool.class.getName());
+        final Map<String, String> backends = cacheFactory.getMap(Backend.class.getName());
+        final Map<String, String> rules = cacheFactory.getMap(Rule.class.getName());
+        final int numPools = Math.max(numBackends / BACKENDS_PER_POOL, 1);
+        for (int p = 0; p < numPools; p++) {
+            final String poolId = "pool-" + p;
+            final Map<String, Object> poolProperties = new HashMap<>();
+            poolProperties.put(PROP_HEALTHCHECK_PATH, path);
+            poolProperties.put(PROP_HEALTHCHECK_RETURN, "OK");
+            poolProperties.put(PROP_HEALTHCHECK_CODE, "200");
+            final BackendPool pool = new BackendPool();
+            pool.setId(poolId);
+            pool.setProperties(poolProperties);
+            pools.put(pool.compoundId(), JsonObject.toJsonString(pool));
+
+            final Map<String, Object> ruleProperties = new HashMap<>();
+            ruleProperties.put(Rule.PROP_TARGET_ID, poolId);
+            final Rule rule = new Rule();
+            rule.setId("rule-" + p);
+            rule.setParentId("vhost-" + p + ".example.com");
+            rule.setProperties(ruleProperties);
+            rules.put(rule.compoundId(), JsonObject.toJsonString(rule));
+        }
+        for (int b = 0; b < numBackends; b++) {
+            final Backend backend = new Backend();
+            backend.setId(backendIds.apply(b));
+            backend.setParentId("pool-" + (b % numPools));
+            backend.setHealth(Backend.Health.HEALTHY);
+            backends.put(backend.compoundId(), JsonObject.toJsonString(backend));
+        }
+        return cacheFactory;
+    }
+
+    /**
+     * A started model of its own, independent of the singleton.
+     */
+    public static TopologyModel newModel(final CacheFactory cacheFactory) {
+        return new TopologyModel().start(cacheFactory);
+    }
+
+}
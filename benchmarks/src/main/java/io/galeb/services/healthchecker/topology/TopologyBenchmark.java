@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.topology;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.galeb.core.model.BackendPool;
+
+/**
+ * Cache iteration and deserialization: the initial load of the model (a
+ * full scan and parse of the three caches) and the per-cycle walk over
+ * pools, their backends and the host of each pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TopologyBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int backends;
+
+    private InMemoryCacheFactory cacheFactory;
+    private TopologyModel topology;
+
+    @Setup
+    public void setup() {
+        cacheFactory = Topologies.generate(backends);
+        topology = Topologies.newModel(cacheFactory);
+    }
+
+    @Benchmark
+    public TopologyModel load() {
+        return Topologies.newModel(cacheFactory);
+    }
+
+    @Benchmark
+    public void walk(final Blackhole blackhole) {
+        for (BackendPool pool : topology.getPools()) {
+            blackhole.consume(topology.getHost(pool.getId()));
+            for (BackendView backend : topology.getBackends(pool.getId())) {
+                blackhole.consume(backend.getHealth());
+            }
+        }
+    }
+
+}
@@ -20,17 +20,21 @@ import static org.quartz.JobBuilder.newJob;
 import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
 import static org.quartz.TriggerBuilder.newTrigger;
 
-import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 
 import io.galeb.core.cluster.ignite.IgniteCacheFactory;
 import io.galeb.core.cluster.ignite.IgniteClusterLocker;
-import io.galeb.services.healthchecker.sched.CleanUpJob;
+import io.galeb.core.statsd.StatsdClient;
+import io.galeb.services.healthchecker.cluster.CheckerMembership;
+import io.galeb.services.healthchecker.metrics.HealthCheckMetrics;
+import io.galeb.services.healthchecker.sched.CheckScheduler;
 import io.galeb.services.healthchecker.sched.HealthCheckJob;
+import io.galeb.services.healthchecker.status.StatusEndpoint;
+import io.galeb.services.healthchecker.topology.TopologyModel;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.quartz.JobDataMap;
@@ -61,17 +65,79 @@ public class HealthChecker extends AbstractService implements JobListener {
 
     public static final String PROP_HEALTHCHECKER_DEF_STATUS  = PROP_HEALTHCHECKER_PREFIX+"defstatus";
 
+    public static final String PROP_HEALTHCHECKER_TIMEOUT    = PROP_HEALTHCHECKER_PREFIX+"timeout";
+
+    public static final String PROP_HEALTHCHECKER_RISE       = PROP_HEALTHCHECKER_PREFIX+"rise";
+
+    public static final String PROP_HEALTHCHECKER_FALL       = PROP_HEALTHCHECKER_PREFIX+"fall";
+
     public static final String PROP_HEALTHCHECKER_FOLLOW_REDIR = PROP_HEALTHCHECKER_PREFIX+"followRedirects";
 
     public static final String PROP_HEALTHCHECKER_THREADS      = PROP_HEALTHCHECKER_PREFIX+"threads";
 
-    public static final String FUTURE_MAP = "futureMap";
+    // BackendPool properties overriding the global settings above
+    public static final String PROP_HEALTHCHECK_INTERVAL = "hcInterval";
+
+    public static final String PROP_HEALTHCHECK_TIMEOUT  = "hcTimeout";
+
+    public static final String PROP_HEALTHCHECK_RISE     = "hcRise";
+
+    public static final String PROP_HEALTHCHECK_FALL     = "hcFall";
+
+    public static final String PROP_HEALTHCHECK_TYPE     = "hcType";
+
+    public static final String CHECK_SCHEDULER = "checkScheduler";
 
     public static final String TESTER_NAME = "tester";
 
+    public static final String PROP_HEALTHCHECKER_TESTER      = PROP_HEALTHCHECKER_PREFIX+TESTER_NAME;
+
+    public static final String PROP_HEALTHCHECKER_IO_THREADS  = PROP_HEALTHCHECKER_PREFIX+"ioThreads";
+
+    public static final String PROP_HEALTHCHECKER_MAX_CONN    = PROP_HEALTHCHECKER_PREFIX+"maxConnections";
+
+    public static final String PROP_HEALTHCHECKER_MAX_CONN_PER_ROUTE = PROP_HEALTHCHECKER_PREFIX+"maxConnectionsPerRoute";
+
+    public static final String PROP_HEALTHCHECKER_CONN_IDLE_TIMEOUT  = PROP_HEALTHCHECKER_PREFIX+"connectionIdleTimeout";
+
+    public static final String PROP_HEALTHCHECKER_SHARDING    = PROP_HEALTHCHECKER_PREFIX+"sharding";
+
+    public static final String PROP_HEALTHCHECKER_GRID_NAME   = PROP_HEALTHCHECKER_PREFIX+"gridName";
+
+    public static final String PROP_HEALTHCHECKER_FLUSH_INTERVAL = PROP_HEALTHCHECKER_PREFIX+"flushInterval";
+
+    public static final String PROP_HEALTHCHECKER_FLUSH_SIZE     = PROP_HEALTHCHECKER_PREFIX+"flushSize";
+
+    public static final String PROP_HEALTHCHECKER_MAX_INFLIGHT   = PROP_HEALTHCHECKER_PREFIX+"maxInFlight";
+
+    public static final String PROP_HEALTHCHECKER_MIN_INFLIGHT   = PROP_HEALTHCHECKER_PREFIX+"minInFlight";
+
+    public static final String PROP_HEALTHCHECKER_BODY_LIMIT     = PROP_HEALTHCHECKER_PREFIX+"bodyLimit";
+
+    public static final String PROP_HEALTHCHECKER_RESULT_TTL     = PROP_HEALTHCHECKER_PREFIX+"resultTtl";
+
+    public static final String PROP_HEALTHCHECKER_SNAPSHOT_FILE  = PROP_HEALTHCHECKER_PREFIX+"snapshotFile";
+
+    public static final String PROP_HEALTHCHECKER_SNAPSHOT_INTERVAL = PROP_HEALTHCHECKER_PREFIX+"snapshotInterval";
+
+    public static final String PROP_HEALTHCHECKER_STATUS_PORT    = PROP_HEALTHCHECKER_PREFIX+"statusPort";
+
+    public static final String PROP_HEALTHCHECKER_STATUS_HOST    = PROP_HEALTHCHECKER_PREFIX+"statusHost";
+
+    public static final String PROP_HEALTHCHECKER_BACKOFF_MAX    = PROP_HEALTHCHECKER_PREFIX+"backoffMax";
+
+    public static final String PROP_HEALTHCHECKER_CONFIRM_INTERVAL = PROP_HEALTHCHECKER_PREFIX+"confirmInterval";
+
+    public static final String PROP_HEALTHCHECKER_VIRTUAL_THREADS = PROP_HEALTHCHECKER_PREFIX+"virtualThreads";
+
+    @Inject
+    private StatsdClient statsdClient;
+
     private Scheduler scheduler;
 
-    private final Map<String, Future> futureMap = new ConcurrentHashMap<>();
+    private final CheckScheduler checkScheduler = new CheckScheduler();
+
+    private final StatusEndpoint statusEndpoint = new StatusEndpoint(checkScheduler);
 
     public HealthChecker() {
         super();
@@ -81,13 +147,30 @@ public class HealthChecker extends AbstractService implements JobListener {
     public void init() {
         cacheFactory = IgniteCacheFactory.getInstance().start();
         clusterLocker = IgniteClusterLocker.getInstance().start();
+        TopologyModel.getInstance().start(cacheFactory);
+        CheckerMembership.getInstance().start();
+        HealthCheckMetrics.getInstance().setClient(statsdClient);
 
         setupScheduler();
         startJobs();
+        statusEndpoint.start();
 
         LOGGER.debug(String.format("%s ready", toString()));
     }
 
+    @PreDestroy
+    public void destroy() {
+        statusEndpoint.stop();
+        try {
+            if (scheduler != null) {
+                scheduler.shutdown();
+            }
+        } catch (SchedulerException e) {
+            LOGGER.error(e);
+        }
+        checkScheduler.stop();
+    }
+
     private void setupScheduler() {
         try {
             scheduler = new StdSchedulerFactory().getScheduler();
@@ -104,30 +187,14 @@ public class HealthChecker extends AbstractService implements JobListener {
             if (scheduler.isStarted()) {
 
                 int interval = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_INTERVAL, "10000"));
+                checkScheduler.start();
                 startHealthCheck(interval);
-                startCleanUp(interval);
             }
         } catch (SchedulerException e) {
             LOGGER.error(e);
         }
     }
 
-    private void startCleanUp(int interval) throws SchedulerException {
-        Trigger triggerCleanup = newTrigger().withIdentity(UUID.randomUUID().toString())
-                .startNow()
-                .withSchedule(simpleSchedule().withIntervalInMilliseconds(interval).repeatForever())
-                .build();
-
-        JobDataMap cleanUpMap = new JobDataMap();
-        cleanUpMap.put(FUTURE_MAP, futureMap);
-
-        JobDetail cleanUpJob = newJob(CleanUpJob.class).withIdentity(CleanUpJob.class.getName())
-                .setJobData(cleanUpMap)
-                .build();
-
-        scheduler.scheduleJob(cleanUpJob, triggerCleanup);
-    }
-
     private void startHealthCheck(int interval) throws SchedulerException {
         Trigger triggerHealthCheck = newTrigger().withIdentity(UUID.randomUUID().toString())
                                       .startNow()
@@ -136,7 +203,7 @@ public class HealthChecker extends AbstractService implements JobListener {
 
         JobDataMap jobdataMap = new JobDataMap();
         jobdataMap.put(AbstractService.FARM_KEY, farm);
-        jobdataMap.put(FUTURE_MAP, futureMap);
+        jobdataMap.put(CHECK_SCHEDULER, checkScheduler);
 
         JobDetail healthCheckJob = newJob(HealthCheckJob.class).withIdentity(HealthCheckJob.class.getName())
                                                                .setJobData(jobdataMap)
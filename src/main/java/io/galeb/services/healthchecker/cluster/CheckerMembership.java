@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.cluster;
+
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_GRID_NAME;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_SHARDING;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import javax.cache.Cache;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.IgniteIllegalStateException;
+import org.apache.ignite.Ignition;
+import org.apache.ignite.cache.CacheMode;
+import org.apache.ignite.configuration.CacheConfiguration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Splits the backends among the live healthchecker nodes. Each checker
+ * registers its Ignite node id in a replicated members cache; members whose
+ * node left the cluster topology are dropped on {@link #refresh()}, and the
+ * hash ring is rebuilt whenever the live set changes.
+ *
+ * The grid is the one named by healthchecker.gridName (the default, unnamed
+ * grid if not set). Until it is started every backend is checked locally.
+ * A membership change is seen by each node at its own next reconcile, so
+ * for up to one interval a backend may be checked by two nodes (both write
+ * the same health) or by none (its health keeps the last value).
+ */
+public class CheckerMembership {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final String MEMBERS_CACHE = CheckerMembership.class.getName();
+
+    private static final CheckerMembership INSTANCE = new CheckerMembership();
+
+    private final boolean enabled = Boolean.parseBoolean(System.getProperty(PROP_HEALTHCHECKER_SHARDING, "true"));
+    private final String gridName = System.getProperty(PROP_HEALTHCHECKER_GRID_NAME);
+
+    private IgniteCache<String, String> members = null;
+    private Ignite ignite = null;
+    private String localId = null;
+    private Set<String> liveMembers = new HashSet<>();
+    private volatile ConsistentHash ring = new ConsistentHash(liveMembers);
+
+    public static CheckerMembership getInstance() {
+        return INSTANCE;
+    }
+
+    private CheckerMembership() {
+        // singleton
+    }
+
+    public synchronized CheckerMembership start() {
+        if (enabled && members == null && !join()) {
+            LOGGER.warn(CheckerMembership.class.getSimpleName() + ": Ignite grid " +
+                    (gridName != null ? gridName : "(default)") + " not started, checking every backend until it is");
+            return this;
+        }
+        refresh();
+        return this;
+    }
+
+    /**
+     * Registers this node in the members cache of the grid, if it is
+     * started. Returns false if not.
+     */
+    private boolean join() {
+        final Ignite grid;
+        try {
+            grid = Ignition.ignite(gridName);
+        } catch (IgniteIllegalStateException e) {
+            return false;
+        }
+        final CacheConfiguration<String, String> config = new CacheConfiguration<>(MEMBERS_CACHE);
+        config.setCacheMode(CacheMode.REPLICATED);
+        final IgniteCache<String, String> cache = grid.getOrCreateCache(config);
+        final String id = grid.cluster().localNode().id().toString();
+        cache.put(id, grid.cluster().localNode().hostNames().toString());
+        ignite = grid;
+        localId = id;
+        members = cache;
+        return true;
+    }
+
+    /**
+     * Re-reads the live members and rebuilds the ring if they changed
+     * (joining the grid first if it was not started before).
+     */
+    public synchronized void refresh() {
+        try {
+            if (members == null && !(enabled && join())) {
+                return;
+            }
+            final Set<String> alive = ignite.cluster().nodes().stream()
+                    .map(node -> node.id().toString())
+                    .collect(Collectors.toSet());
+            final Set<String> current = new TreeSet<>();
+            for (Cache.Entry<String, String> entry : members) {
+                if (alive.contains(entry.getKey())) {
+                    current.add(entry.getKey());
+                } else {
+                    members.remove(entry.getKey());
+                }
+            }
+            if (!current.contains(localId)) {
+                members.put(localId, ignite.cluster().localNode().hostNames().toString());
+                current.add(localId);
+            }
+            if (!current.equals(liveMembers)) {
+                liveMembers = current;
+                ring = new ConsistentHash(current);
+                LOGGER.info(CheckerMembership.class.getSimpleName() + ": " + current.size() +
+                        " healthchecker(s) sharing the backends " + current);
+            }
+        } catch (Exception e) {
+            LOGGER.error(e);
+        }
+    }
+
+    /**
+     * Whether this node owns the check of the given backend. Without a
+     * cluster (or with sharding disabled) every backend is local.
+     */
+    public boolean isLocal(String backendKey) {
+        final ConsistentHash currentRing = ring;
+        return currentRing.isEmpty() || localId.equals(currentRing.ownerOf(backendKey));
+    }
+
+}
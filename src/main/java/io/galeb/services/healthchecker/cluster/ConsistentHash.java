@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Immutable hash ring. Each member is placed on the ring several times, so
+ * a member joining or leaving only moves its own share of the keys.
+ */
+public class ConsistentHash {
+
+    private static final int VIRTUAL_NODES = 128;
+
+    private final SortedMap<Long, String> ring = new TreeMap<>();
+
+    public ConsistentHash(final Collection<String> members) {
+        members.forEach(member -> {
+            for (int replica = 0; replica < VIRTUAL_NODES; replica++) {
+                ring.put(hash(member + "#" + replica), member);
+            }
+        });
+    }
+
+    public String ownerOf(String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        final SortedMap<Long, String> tail = ring.tailMap(hash(key));
+        return tail.isEmpty() ? ring.get(ring.firstKey()) : tail.get(tail.firstKey());
+    }
+
+    public boolean isEmpty() {
+        return ring.isEmpty();
+    }
+
+    public static long hash(String key) {
+        // FNV-1a 64 with a murmur3 finalizer to spread similar keys (e.g. consecutive ports)
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.metrics;
+
+import java.util.Locale;
+
+import io.galeb.core.model.Backend;
+import io.galeb.core.statsd.StatsdClient;
+import io.galeb.services.healthchecker.testers.CheckResult;
+
+/**
+ * Sends the checker metrics to statsd (nothing is sent until a client is
+ * set) and keeps the last reconcile pass and the probe latencies of the
+ * current and previous interval for the status endpoint. Probing itself
+ * runs continuously in the scheduler (see dispatched for its lag).
+ */
+public class HealthCheckMetrics {
+
+    private static final String PREFIX = "healthchecker.";
+
+    private static final HealthCheckMetrics INSTANCE = new HealthCheckMetrics();
+
+    private volatile StatsdClient statsdClient = null;
+    private volatile long lastReconcile = 0L;
+    private volatile long lastReconcileAt = 0L;
+    private volatile LatencyHistogram latencies = new LatencyHistogram();
+    private volatile LatencyHistogram lastLatencies = new LatencyHistogram();
+
+    public static HealthCheckMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    private HealthCheckMetrics() {
+        // singleton
+    }
+
+    public HealthCheckMetrics setClient(final StatsdClient statsdClient) {
+        this.statsdClient = statsdClient;
+        return this;
+    }
+
+    /**
+     * One reconcile pass of the topology into the scheduler (once per
+     * interval): how long it took, not how long probing took.
+     */
+    public void reconcile(long duration, int scheduled, int inFlight, long skippedBusy, long skippedFull) {
+        lastReconcile = duration;
+        lastReconcileAt = System.currentTimeMillis();
+        lastLatencies = latencies;
+        latencies = new LatencyHistogram();
+        final StatsdClient client = statsdClient;
+        if (client != null) {
+            client.timing(PREFIX + "reconcile.time", duration);
+            client.gauge(PREFIX + "backends.scheduled", scheduled);
+            client.gauge(PREFIX + "checks.inflight", inFlight);
+            client.incr(PREFIX + "checks.skipped.busy", (int) skippedBusy);
+            client.incr(PREFIX + "checks.skipped.full", (int) skippedFull);
+        }
+    }
+
+    public void dispatched(int checks, long maxLag) {
+        final StatsdClient client = statsdClient;
+        if (client != null && checks > 0) {
+            client.incr(PREFIX + "checks.dispatched", checks);
+            client.timing(PREFIX + "schedule.lag", maxLag);
+        }
+    }
+
+    public void concurrency(int limit) {
+        final StatsdClient client = statsdClient;
+        if (client != null) {
+            client.gauge(PREFIX + "concurrency.limit", limit);
+        }
+    }
+
+    public void probe(String poolId, final CheckResult result) {
+        latencies.record(result.getLatency());
+        final StatsdClient client = statsdClient;
+        if (client != null) {
+            client.timing(PREFIX + "probe." + clean(poolId) + ".latency", result.getLatency());
+            client.incr(PREFIX + "probe.result." + result.getCause().name().toLowerCase(Locale.ENGLISH), 1);
+        }
+    }
+
+    public void shared() {
+        final StatsdClient client = statsdClient;
+        if (client != null) {
+            client.incr(PREFIX + "checks.shared", 1);
+        }
+    }
+
+    public void confirm() {
+        final StatsdClient client = statsdClient;
+        if (client != null) {
+            client.incr(PREFIX + "checks.confirm", 1);
+        }
+    }
+
+    public void transition(final Backend.Health health) {
+        final StatsdClient client = statsdClient;
+        if (client != null) {
+            client.incr(PREFIX + "transition." + health.name().toLowerCase(Locale.ENGLISH), 1);
+        }
+    }
+
+    public long getLastReconcile() {
+        return lastReconcile;
+    }
+
+    public long getLastReconcileAt() {
+        return lastReconcileAt;
+    }
+
+    /**
+     * Probe latencies of the last complete interval (between two reconcile
+     * passes).
+     */
+    public LatencyHistogram getLastLatencies() {
+        return lastLatencies;
+    }
+
+    private static String clean(String name) {
+        return name == null ? "unknown" : name.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+}
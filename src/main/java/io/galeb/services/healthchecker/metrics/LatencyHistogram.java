@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram (ms): exact below 32 ms, then 16 buckets per
+ * power of two (about 6% precision). Recording is one atomic increment;
+ * percentiles are read from a racy but consistent-enough scan.
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR = 32;
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int FIRST_EXPONENT = 5; // log2(LINEAR)
+    private static final int BUCKETS = LINEAR + (Long.SIZE - 1 - FIRST_EXPONENT) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long latency) {
+        counts.incrementAndGet(indexOf(Math.max(latency, 0L)));
+    }
+
+    /**
+     * Returns the latency below which the given fraction (0..1] of the
+     * recorded values fall (upper bound of its bucket), or 0 if empty.
+     */
+    public long percentile(double fraction) {
+        final long[] snapshot = new long[BUCKETS];
+        long total = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+        final long rank = Math.max((long) Math.ceil(total * fraction), 1L);
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    public long count() {
+        long total = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    private static int indexOf(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        final int exponent = (index - LINEAR) / SUB_BUCKETS + FIRST_EXPONENT;
+        final int sub = (index - LINEAR) % SUB_BUCKETS;
+        final long upper = ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1L;
+        return upper < 0L ? Long.MAX_VALUE : upper;
+    }
+
+}
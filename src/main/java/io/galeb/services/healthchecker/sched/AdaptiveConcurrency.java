@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.sched;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-flight limit that sizes itself from what it observes. Every window it
+ * estimates the concurrency needed to keep up (Little's law: dispatch rate
+ * x mean probe latency, plus headroom), grows at once when checks were
+ * turned away or queued, and shrinks gradually when the limit is idle.
+ */
+class AdaptiveConcurrency {
+
+    private static final double HEADROOM = 1.5;
+
+    private final int min;
+    private final int max;
+    private volatile int limit;
+
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final AtomicInteger peak = new AtomicInteger(0);
+    private final AtomicLong acquired = new AtomicLong(0L);
+    private final AtomicLong rejected = new AtomicLong(0L);
+    private final AtomicLong latencySum = new AtomicLong(0L);
+    private final AtomicLong latencyCount = new AtomicLong(0L);
+    private long windowStart = System.currentTimeMillis();
+
+    AdaptiveConcurrency(int min, int max, int initial) {
+        this.min = Math.max(1, Math.min(min, max));
+        this.max = Math.max(this.min, max);
+        this.limit = Math.max(this.min, Math.min(initial, this.max));
+    }
+
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                acquired.incrementAndGet();
+                peak.accumulateAndGet(current + 1, Math::max);
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    void recordLatency(long latency) {
+        latencySum.addAndGet(latency);
+        latencyCount.incrementAndGet();
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Closes the current window and returns the new limit.
+     *
+     * @param backlog checks accepted but still waiting for a thread
+     */
+    synchronized int adjust(int backlog) {
+        final long now = System.currentTimeMillis();
+        final long elapsed = Math.max(now - windowStart, 1L);
+        windowStart = now;
+        final long dispatched = acquired.getAndSet(0L);
+        final long turnedAway = rejected.getAndSet(0L);
+        final long count = latencyCount.getAndSet(0L);
+        final long sum = latencySum.getAndSet(0L);
+        final int peakInFlight = peak.getAndSet(inFlight.get());
+
+        final double rate = (dispatched + turnedAway) * 1000.0 / elapsed;
+        final double meanLatency = count > 0 ? (double) sum / count : 0.0;
+        int target = (int) Math.ceil(rate * meanLatency / 1000.0 * HEADROOM);
+        final boolean overrun = turnedAway > 0 || backlog > 0;
+        if (overrun) {
+            target = Math.max(target, limit + limit / 2 + 1);
+        } else if (peakInFlight >= limit) {
+            target = Math.max(target, limit);
+        }
+        if (target < limit) {
+            // shrink gradually: a quiet window is weak evidence
+            target = limit - Math.max(1, (limit - target) / 4);
+        }
+        limit = Math.max(min, Math.min(target, max));
+        return limit;
+    }
+}
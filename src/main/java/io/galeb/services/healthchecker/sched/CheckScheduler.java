@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.sched;
+
+import static io.galeb.core.model.BackendPool.PROP_HEALTHCHECK_CODE;
+import static io.galeb.core.model.BackendPool.PROP_HEALTHCHECK_HOST;
+import static io.galeb.core.model.BackendPool.PROP_HEALTHCHECK_PATH;
+import static io.galeb.core.model.BackendPool.PROP_HEALTHCHECK_RETURN;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_BACKOFF_MAX;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_CONFIRM_INTERVAL;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_FOLLOW_REDIR;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_INTERVAL;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_MAX_INFLIGHT;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_MIN_INFLIGHT;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_RESULT_TTL;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_SNAPSHOT_FILE;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_SNAPSHOT_INTERVAL;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_THREADS;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_VIRTUAL_THREADS;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECK_FALL;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECK_INTERVAL;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECK_RISE;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECK_TIMEOUT;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECK_TYPE;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.galeb.core.cluster.ignite.IgniteCacheFactory;
+import io.galeb.core.jcache.CacheFactory;
+import io.galeb.core.model.Backend;
+import io.galeb.services.healthchecker.metrics.HealthCheckMetrics;
+import io.galeb.services.healthchecker.testers.CheckResult;
+import io.galeb.services.healthchecker.testers.TesterType;
+import io.galeb.services.healthchecker.topology.BackendView;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps a next-due time per backend and dispatches each check when it is
+ * due, instead of probing every backend at the start of the interval. The
+ * interval and timeout come from the pool properties (see HealthCheckJob). New
+ * backends get a random offset inside the interval and every reschedule
+ * adds a little jitter, so the checks stay spread over the whole interval.
+ * A DEAD backend that keeps failing is checked less and less often (the
+ * interval doubles up to healthchecker.backoffMax) until it recovers.
+ * A failure that does not confirm DEAD yet is followed by confirmation
+ * checks every healthchecker.confirmInterval ms, outside the schedule,
+ * until the backend is confirmed DEAD or succeeds again.
+ * With healthchecker.virtualThreads (on a JDK that has them) blocking
+ * testers run on a virtual thread each, bounded by the in-flight limit
+ * only, instead of a platform thread pool.
+ * Backends with the same address and check share one probe (see
+ * {@link ProbeCache}). If healthchecker.snapshotFile is set, the state is
+ * checkpointed to that file (see {@link StateSnapshot}) so that a restart
+ * keeps the streaks, back-offs and phases.
+ */
+public class CheckScheduler {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final long TICK = 50L;
+    private static final double JITTER = 0.05;
+
+    private static Integer threads = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_THREADS,
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+    // the default tester sizes the executor, pools may still pick another one (hcType)
+    private static final TesterType testerType = TesterType.fromProperty();
+
+    private final String followRedirects = System.getProperty(PROP_HEALTHCHECKER_FOLLOW_REDIR);
+    private final int maxInFlight = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_MAX_INFLIGHT, "1000"));
+    private final int minInFlight = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_MIN_INFLIGHT,
+            String.valueOf(threads)));
+    private final long adjustPeriod = Long.parseLong(System.getProperty(PROP_HEALTHCHECKER_INTERVAL, "10000"));
+    private final long confirmInterval = Long.parseLong(System.getProperty(PROP_HEALTHCHECKER_CONFIRM_INTERVAL,
+            "200"));
+    private final long backoffMax = Long.parseLong(System.getProperty(PROP_HEALTHCHECKER_BACKOFF_MAX, "60000"));
+    private final long resultTtl = Long.parseLong(System.getProperty(PROP_HEALTHCHECKER_RESULT_TTL, "1000"));
+    // opt-in: each checker process needs a file of its own
+    private final String snapshotFile = System.getProperty(PROP_HEALTHCHECKER_SNAPSHOT_FILE, "");
+    private final long snapshotInterval = Long.parseLong(System.getProperty(PROP_HEALTHCHECKER_SNAPSHOT_INTERVAL,
+            String.valueOf(adjustPeriod)));
+
+    private final CacheFactory cacheFactory = IgniteCacheFactory.getInstance();
+    private final HealthPublisher publisher = new HealthPublisher(cacheFactory);
+    private final HealthCheckMetrics metrics = HealthCheckMetrics.getInstance();
+    private final AtomicInteger workers = new AtomicInteger(0);
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+            60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        final Thread thread = new Thread(r, CheckScheduler.class.getSimpleName() + "-worker-" +
+                workers.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    // result handling of the non-blocking testers, kept apart so it never waits behind blocking checks
+    private final AtomicInteger completers = new AtomicInteger(0);
+    private final ExecutorService completions = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+        final Thread thread = new Thread(r, CheckScheduler.class.getSimpleName() + "-completion-" +
+                completers.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    // null unless enabled and supported: blocking checks then run on it, the in-flight limit is their only bound
+    private final ExecutorService virtualExecutor = Boolean.getBoolean(PROP_HEALTHCHECKER_VIRTUAL_THREADS) ?
+            VirtualThreads.newExecutor() : null;
+    // whether the default tester holds a pool thread per check, so the pool size is the concurrency limit
+    private final boolean threadBound = testerType.isBlocking() && virtualExecutor == null;
+    private final AdaptiveConcurrency concurrency = new AdaptiveConcurrency(minInFlight, maxInFlight,
+            threadBound ? threads : maxInFlight);
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, CheckScheduler.class.getSimpleName());
+        thread.setDaemon(true);
+        return thread;
+    });
+    // the snapshot is written and synced to disk here, never on the ticker that dispatches
+    private final ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, CheckScheduler.class.getSimpleName() + "-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, CheckState> states = new ConcurrentHashMap<>();
+    private final PriorityQueue<Due> queue = new PriorityQueue<>();
+    private final ProbeCache probeCache = new ProbeCache(resultTtl);
+    private final StateSnapshot snapshot = new StateSnapshot("".equals(snapshotFile) ? null : Paths.get(snapshotFile));
+    private final AtomicLong skippedBusy = new AtomicLong(0L);
+    private final AtomicLong skippedFull = new AtomicLong(0L);
+    private volatile int queueDepth = 0;
+
+    private static class Due implements Comparable<Due> {
+        private final long at;
+        private final long generation;
+        private final CheckState state;
+        // an extra check confirming a failure: not rescheduled, leaves the regular entry alone
+        private final boolean confirm;
+
+        Due(long at, long generation, final CheckState state) {
+            this(at, generation, state, false);
+        }
+
+        Due(long at, long generation, final CheckState state, boolean confirm) {
+            this.at = at;
+            this.generation = generation;
+            this.state = state;
+            this.confirm = confirm;
+        }
+
+        @Override
+        public int compareTo(Due other) {
+            return Long.compare(at, other.at);
+        }
+    }
+
+    public CheckScheduler start() {
+        publisher.start();
+        resizeExecutor(concurrency.getLimit());
+        snapshot.load();
+        ticker.scheduleWithFixedDelay(this::dispatchDue, TICK, TICK, TimeUnit.MILLISECONDS);
+        ticker.scheduleWithFixedDelay(this::adjustConcurrency, adjustPeriod, adjustPeriod, TimeUnit.MILLISECONDS);
+        if (!"".equals(snapshotFile)) {
+            checkpointer.scheduleWithFixedDelay(this::checkpoint, snapshotInterval, snapshotInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * Stops dispatching and releases the executors and the shared tester
+     * clients. Checks in flight are abandoned.
+     */
+    public void stop() {
+        ticker.shutdownNow();
+        checkpointer.shutdownNow();
+        executor.shutdownNow();
+        completions.shutdownNow();
+        if (virtualExecutor != null) {
+            virtualExecutor.shutdownNow();
+        }
+        TesterType.closeAll();
+    }
+
+    /**
+     * Adds the backend (or refreshes its entity and check properties).
+     * Only a new backend is placed on the schedule: at the phase saved by
+     * the previous run if there is one, else at a random point of its
+     * first interval.
+     */
+    public void track(final BackendView backend, final Map<String, Object> properties) {
+        final String key = backend.getKey();
+        CheckState state = states.get(key);
+        if (state == null) {
+            final CheckState newState = new CheckState(key);
+            newState.update(backend, properties);
+            state = states.putIfAbsent(key, newState);
+            if (state == null) {
+                final long now = System.currentTimeMillis();
+                final long interval = intervalOf(newState);
+                final Long savedDue = snapshot.restore(newState);
+                enqueue(newState, now + (savedDue != null ? Math.floorMod(savedDue - now, interval) :
+                        ThreadLocalRandom.current().nextLong(interval)));
+                return;
+            }
+        }
+        state.update(backend, properties);
+    }
+
+    /**
+     * Stops checking every backend not in keys.
+     */
+    public void retain(final Set<String> keys) {
+        if (!keys.isEmpty()) {
+            // every backend known now was tracked once: what was not restored is gone
+            snapshot.forget();
+        }
+        final Iterator<CheckState> iterator = states.values().iterator();
+        while (iterator.hasNext()) {
+            final CheckState state = iterator.next();
+            if (!keys.contains(state.getKey())) {
+                iterator.remove();
+                synchronized (queue) {
+                    state.generation++;
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    /**
+     * Read-only view of the tracked backends.
+     */
+    public Collection<CheckState> getStates() {
+        return Collections.unmodifiableCollection(states.values());
+    }
+
+    /**
+     * Entries in the schedule as of the last tick (including stale ones
+     * not yet skipped).
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getInFlight() {
+        return concurrency.getInFlight();
+    }
+
+    public int getConcurrencyLimit() {
+        return concurrency.getLimit();
+    }
+
+    /**
+     * Checks skipped since the last call because the previous check of the
+     * same backend was still running.
+     */
+    public long drainSkippedBusy() {
+        return skippedBusy.getAndSet(0L);
+    }
+
+    /**
+     * Checks skipped since the last call because the in-flight limit was
+     * reached.
+     */
+    public long drainSkippedFull() {
+        return skippedFull.getAndSet(0L);
+    }
+
+    private void enqueue(final CheckState state, long at) {
+        synchronized (queue) {
+            state.setNextDue(at);
+            queue.add(new Due(at, ++state.generation, state));
+            queueDepth = queue.size();
+        }
+    }
+
+    /**
+     * Moves the next check of state to one (backed off) interval from now,
+     * unless it is no longer tracked.
+     */
+    private void reschedule(final CheckState state) {
+        final long interval = state.backedOff(intervalOf(state), backoffMax);
+        synchronized (queue) {
+            if (states.get(state.getKey()) == state) {
+                enqueue(state, System.currentTimeMillis() + jittered(interval));
+            }
+        }
+    }
+
+    private long intervalOf(final CheckState state) {
+        return (int) state.getProperties().get(PROP_HEALTHCHECK_INTERVAL);
+    }
+
+    private static long jittered(long interval) {
+        final long jitter = (long) (interval * JITTER);
+        return interval + (jitter > 0 ? ThreadLocalRandom.current().nextLong(-jitter, jitter + 1) : 0L);
+    }
+
+    private void dispatchDue() {
+        try {
+            final long now = System.currentTimeMillis();
+            final List<CheckState> due = new ArrayList<>();
+            final List<CheckState> confirms = new ArrayList<>();
+            long maxLag = 0L;
+            synchronized (queue) {
+                while (!queue.isEmpty() && queue.peek().at <= now) {
+                    final Due next = queue.poll();
+                    if (next.confirm) {
+                        if (states.get(next.state.getKey()) == next.state) {
+                            confirms.add(next.state);
+                        }
+                    } else if (next.generation == next.state.generation) {
+                        due.add(next.state);
+                        maxLag = Math.max(maxLag, now - next.at);
+                        long stateInterval = next.state.backedOff(intervalOf(next.state), backoffMax);
+                        long at = next.at + jittered(stateInterval);
+                        if (at <= now) {
+                            // fell behind (e.g. paused): spread again instead of bursting
+                            at = now + ThreadLocalRandom.current().nextLong(stateInterval);
+                        }
+                        next.state.setNextDue(at);
+                        queue.add(new Due(at, ++next.state.generation, next.state));
+                    }
+                }
+                queueDepth = queue.size();
+            }
+            due.forEach(state -> dispatch(state, false));
+            confirms.forEach(state -> dispatch(state, true));
+            metrics.dispatched(due.size(), maxLag);
+        } catch (Exception e) {
+            LOGGER.error(e);
+        }
+    }
+
+    /**
+     * Runs the check of state. A confirmation check never reuses a cached
+     * result (it would be the failure it is confirming).
+     */
+    private void dispatch(final CheckState state, boolean confirm) {
+        final BackendView backend = state.getBackend();
+        final Map<String, Object> properties = state.getProperties();
+        final String hcBody = (String) properties.get(PROP_HEALTHCHECK_RETURN);
+        final String hcPath = (String) properties.get(PROP_HEALTHCHECK_PATH);
+        final String hcHost = (String) properties.get(PROP_HEALTHCHECK_HOST);
+        final int statusCode = (int) properties.get(PROP_HEALTHCHECK_CODE);
+        final int timeout = (int) properties.get(PROP_HEALTHCHECK_TIMEOUT);
+        final String hostWithPort = backend.getId();
+        final TesterType hcType = ((TesterType) properties.get(PROP_HEALTHCHECK_TYPE)).forUrl(hostWithPort);
+        final String fullPath = hostWithPort+hcPath;
+        if (!state.tryStart()) {
+            if (confirm) {
+                // the check running now confirms just as well
+                return;
+            }
+            skippedBusy.incrementAndGet();
+            LOGGER.debug(state.getKey() + " skipped (previous check still running)");
+            return;
+        }
+        final String checkKey = hostWithPort + '|' + hcPath + '|' + hcHost + '|' + statusCode + '|' + hcBody + '|' +
+                hcType + '|' + timeout;
+        if (confirm) {
+            metrics.confirm();
+        }
+        final boolean shared = probeCache.join(checkKey, confirm ? -1L : intervalOf(state) / 2, result -> {
+            try {
+                if (result != null) {
+                    onResult(state, backend, result);
+                }
+            } finally {
+                state.finish();
+            }
+        });
+        if (shared) {
+            LOGGER.debug(state.getKey() + " shares the probe of " + checkKey);
+            metrics.shared();
+            return;
+        }
+        if (!concurrency.tryAcquire()) {
+            probeCache.abandon(checkKey);
+            skippedFull.incrementAndGet();
+            LOGGER.debug(state.getKey() + " skipped (" + concurrency.getLimit() + " checks in flight)");
+            return;
+        }
+        try {
+            LOGGER.debug("Processing " + state.getKey());
+            hcType.newTester()
+                    .reset()
+                    .withUrl(fullPath)
+                    .withHost(hcHost)
+                    .withStatusCode(statusCode)
+                    .withBody(hcBody)
+                    .setConnectionTimeOut(timeout)
+                    .followRedirects(followRedirects != null ?
+                            Boolean.parseBoolean(followRedirects) : null)
+                    .onResult(result -> {
+                        metrics.probe(backend.getParentId(), result);
+                        concurrency.recordLatency(result.getLatency());
+                        probeCache.complete(checkKey, result);
+                    })
+                    .submit(executorOf(hcType))
+                    .whenComplete((result, error) -> finish(checkKey));
+        } catch (Exception e) {
+            finish(checkKey);
+            LOGGER.error(hostWithPort+": "+e.getMessage());
+        }
+    }
+
+    private ExecutorService executorOf(final TesterType hcType) {
+        if (!hcType.isBlocking()) {
+            return completions;
+        }
+        return virtualExecutor != null ? virtualExecutor : executor;
+    }
+
+    private void adjustConcurrency() {
+        try {
+            probeCache.purge();
+            int previous = concurrency.getLimit();
+            // only blocking checks queue there: non-blocking results are handled on completions
+            int limit = concurrency.adjust(threadBound ? executor.getQueue().size() : 0);
+            if (limit != previous) {
+                resizeExecutor(limit);
+                LOGGER.info(CheckScheduler.class.getSimpleName() + ": concurrency " + previous + " -> " + limit);
+            }
+            metrics.concurrency(limit);
+        } catch (Exception e) {
+            LOGGER.error(e);
+        }
+    }
+
+    /**
+     * Checks state again soon, to confirm (or not) the failure it just had.
+     */
+    private void confirm(final CheckState state) {
+        if (confirmInterval <= 0 || confirmInterval >= intervalOf(state)) {
+            return;
+        }
+        synchronized (queue) {
+            queue.add(new Due(System.currentTimeMillis() + confirmInterval, state.generation, state, true));
+            queueDepth = queue.size();
+        }
+    }
+
+    private void checkpoint() {
+        try {
+            snapshot.save(states.values());
+        } catch (Exception e) {
+            LOGGER.error(e);
+        }
+    }
+
+    private void resizeExecutor(int limit) {
+        if (!threadBound) {
+            // async probes (or virtual threads) do not hold a pool thread, the pool only runs blocking pools
+            return;
+        }
+        if (limit > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(limit);
+            executor.setCorePoolSize(limit);
+        } else {
+            executor.setCorePoolSize(limit);
+            executor.setMaximumPoolSize(limit);
+        }
+    }
+
+    private void finish(String checkKey) {
+        // no-op if the probe reported its result
+        probeCache.abandon(checkKey);
+        concurrency.release();
+    }
+
+    private void onResult(final CheckState state, final BackendView backend, final CheckResult result) {
+        final Map<String, Object> properties = state.getProperties();
+        final boolean isOk = result.isOk();
+        state.setLastResult(result);
+        final int backoff = state.getBackoff();
+        final Backend.Health confirmed = state.record(isOk,
+                (int) properties.get(PROP_HEALTHCHECK_RISE), (int) properties.get(PROP_HEALTHCHECK_FALL));
+        if (state.getBackoff() != backoff) {
+            // the check queued at dispatch used the previous back-off (e.g. a minute away after a recovery)
+            reschedule(state);
+        }
+        final Backend.Health lastHealth = backend.getHealth();
+        if (confirmed == null) {
+            LOGGER.debug(state.getKey() + " is " + (isOk ? "OK" : "FAILED") + ", keeping " + lastHealth);
+            if (!isOk && lastHealth != Backend.Health.DEAD) {
+                confirm(state);
+            }
+            return;
+        }
+        if (confirmed != lastHealth) {
+            LOGGER.debug("New Health " + state.getKey() + " is " + confirmed);
+            if (confirmed == Backend.Health.HEALTHY) {
+                LOGGER.info(backend.getId()+" is OK");
+            } else {
+                LOGGER.warn(backend.getId()+" is FAILED");
+            }
+            backend.setHealth(confirmed);
+            publisher.publish(state.getKey(), confirmed);
+            metrics.transition(confirmed);
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.sched;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.galeb.core.model.Backend;
+import io.galeb.services.healthchecker.testers.CheckResult;
+import io.galeb.services.healthchecker.topology.BackendView;
+
+/**
+ * What the {@link CheckScheduler} knows about one backend: the latest
+ * entity, the check properties of its pool, when it is due again, the
+ * last result, how many consecutive checks succeeded or failed and how
+ * far its checks are backed off while it stays DEAD.
+ */
+public class CheckState {
+
+    private static final int MAX_BACKOFF = 20;
+
+    private final String key;
+    private volatile BackendView backend;
+    private volatile Map<String, Object> properties;
+    private volatile long nextDue = 0L;
+    private final AtomicBoolean inFlight = new AtomicBoolean(false);
+    private volatile CheckResult lastResult = null;
+    private int successes = 0;
+    private int failures = 0;
+    private int backoff = 0;
+
+    // guarded by the scheduler queue: bumped on every (re)schedule, so stale queue entries are skipped
+    long generation = 0L;
+
+    CheckState(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public BackendView getBackend() {
+        return backend;
+    }
+
+    public Map<String, Object> getProperties() {
+        return properties;
+    }
+
+    public long getNextDue() {
+        return nextDue;
+    }
+
+    /**
+     * Counts one result and returns the health it confirms: HEALTHY after
+     * rise consecutive successes, DEAD after fall consecutive failures,
+     * null while the streak is still too short. Every failure after the
+     * one that confirmed DEAD doubles the back-off, any success resets it.
+     */
+    synchronized Backend.Health record(boolean isOk, int rise, int fall) {
+        if (isOk) {
+            failures = 0;
+            backoff = 0;
+            successes = Math.min(successes + 1, rise);
+            return successes >= rise ? Backend.Health.HEALTHY : null;
+        }
+        successes = 0;
+        final boolean wasDead = failures >= fall;
+        failures = Math.min(failures + 1, fall);
+        if (failures >= fall) {
+            if (wasDead) {
+                backoff = Math.min(backoff + 1, MAX_BACKOFF);
+            }
+            return Backend.Health.DEAD;
+        }
+        return null;
+    }
+
+    /**
+     * The interval stretched by the back-off (interval * 2^backoff), at
+     * most max (and never shorter than interval).
+     */
+    synchronized long backedOff(long interval, long max) {
+        return backoff == 0 ? interval : Math.max(Math.min(interval << backoff, max), interval);
+    }
+
+    synchronized int getBackoff() {
+        return backoff;
+    }
+
+    synchronized int getSuccesses() {
+        return successes;
+    }
+
+    synchronized int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Puts back the streaks, back-off and last result saved by a previous
+     * run.
+     */
+    synchronized void restore(int successes, int failures, int backoff, final CheckResult lastResult) {
+        this.successes = successes;
+        this.failures = failures;
+        this.backoff = Math.max(Math.min(backoff, MAX_BACKOFF), 0);
+        this.lastResult = lastResult;
+    }
+
+    public CheckResult getLastResult() {
+        return lastResult;
+    }
+
+    void setLastResult(final CheckResult lastResult) {
+        this.lastResult = lastResult;
+    }
+
+    boolean tryStart() {
+        return inFlight.compareAndSet(false, true);
+    }
+
+    void finish() {
+        inFlight.set(false);
+    }
+
+    public boolean isInFlight() {
+        return inFlight.get();
+    }
+
+    void update(final BackendView backend, final Map<String, Object> properties) {
+        this.backend = backend;
+        this.properties = properties;
+    }
+
+    void setNextDue(long nextDue) {
+        this.nextDue = nextDue;
+    }
+}
@@ -20,26 +20,31 @@ import static io.galeb.core.model.BackendPool.PROP_HEALTHCHECK_CODE;
 import static io.galeb.core.model.BackendPool.PROP_HEALTHCHECK_HOST;
 import static io.galeb.core.model.BackendPool.PROP_HEALTHCHECK_PATH;
 import static io.galeb.core.model.BackendPool.PROP_HEALTHCHECK_RETURN;
-import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_FOLLOW_REDIR;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_FALL;
 import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_INTERVAL;
-import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_THREADS;
-
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_RISE;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_TIMEOUT;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECK_FALL;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECK_INTERVAL;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECK_RISE;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECK_TIMEOUT;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECK_TYPE;
+
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
-
-import io.galeb.core.cluster.ignite.IgniteCacheFactory;
-import io.galeb.core.jcache.CacheFactory;
-import io.galeb.core.json.JsonObject;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import io.galeb.core.model.Farm;
 import io.galeb.core.services.AbstractService;
-import io.galeb.services.healthchecker.testers.RestAssuredTester;
+import io.galeb.services.healthchecker.cluster.CheckerMembership;
+import io.galeb.services.healthchecker.metrics.HealthCheckMetrics;
+import io.galeb.services.healthchecker.testers.TesterType;
+import io.galeb.services.healthchecker.topology.BackendView;
+import io.galeb.services.healthchecker.topology.TopologyModel;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.quartz.DisallowConcurrentExecution;
@@ -48,33 +53,49 @@ import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 
-import io.galeb.core.model.Backend;
-import io.galeb.core.model.BackendPool;
 import io.galeb.core.model.Entity;
-import io.galeb.core.model.Rule;
 import io.galeb.services.healthchecker.HealthChecker;
 
-import javax.cache.Cache;
-
+/**
+ * Syncs the {@link CheckScheduler} with the topology once per interval:
+ * owned backends are tracked with the current check properties of their
+ * pool, everything else is dropped. The checks themselves are dispatched
+ * by the scheduler, each one when it is due.
+ */
 @DisallowConcurrentExecution
 public class HealthCheckJob implements Job {
 
     private static final Logger LOGGER = LogManager.getLogger();
 
     private static final int CONN_TIMEOUT_DELTA = 1000;
-    private static Integer threads = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_THREADS,
-            String.valueOf(Runtime.getRuntime().availableProcessors())));
+    private static final int MIN_INTERVAL = 500;
+
+    private static final int DEF_INTERVAL = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_INTERVAL, "10000"));
+    private static final int DEF_TIMEOUT = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_TIMEOUT,
+            String.valueOf(DEF_INTERVAL - CONN_TIMEOUT_DELTA)));
+    private static final int DEF_RISE = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_RISE, "1"));
+    private static final int DEF_FALL = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_FALL, "1"));
+    private static final TesterType DEF_TYPE = TesterType.fromProperty();
 
-    private CacheFactory cacheFactory = IgniteCacheFactory.getInstance();
+    private TopologyModel topology = TopologyModel.getInstance();
+    private CheckerMembership membership = CheckerMembership.getInstance();
+    private HealthCheckMetrics metrics = HealthCheckMetrics.getInstance();
 
-    private final ExecutorService executor = Executors.newWorkStealingPool(threads);
-    private Map<String, Future> futureMap = null;
+    private CheckScheduler checkScheduler = null;
     private Farm farm = null;
 
-    @SuppressWarnings("unchecked")
+    public HealthCheckJob() {
+        // instantiated by quartz
+    }
+
+    HealthCheckJob(final TopologyModel topology, final CheckScheduler checkScheduler) {
+        this.topology = topology;
+        this.checkScheduler = checkScheduler;
+    }
+
     private void init(final JobDataMap jobDataMap) {
-        if (futureMap == null) {
-            futureMap = (Map<String, Future>) jobDataMap.get(HealthChecker.FUTURE_MAP);
+        if (checkScheduler == null) {
+            checkScheduler = (CheckScheduler) jobDataMap.get(HealthChecker.CHECK_SCHEDULER);
         }
         if (farm == null) {
             farm = (Farm) jobDataMap.get(AbstractService.FARM_KEY);
@@ -88,24 +109,34 @@ public class HealthCheckJob implements Job {
 
         LOGGER.info("=== " + this.getClass().getSimpleName() + " ===");
 
-        Cache<String, String> pools = cacheFactory.getCache(BackendPool.class.getName());
-        Cache<String, String> backends = cacheFactory.getCache(Backend.class.getName());
-        Stream<Cache.Entry<String, String>> streamOfBackendPools = StreamSupport.stream(pools.spliterator(), true);
-
-        streamOfBackendPools.parallel().forEach(entry -> {
-            final BackendPool backendPool = (BackendPool) JsonObject.fromJson(entry.getValue(), BackendPool.class);
-            final String backendPoolId = backendPool.getId();
-            final Stream<Backend> streamOfBackends = StreamSupport.stream(backends.spliterator(), false)
-                    .map(entry2 -> (Backend) JsonObject.fromJson(entry2.getValue(), Backend.class))
-                    .filter(b -> b.getParentId().equals(backendPoolId));
-            checkBackendPool(streamOfBackends, getProperties(backendPool));
-        });
-
-        LOGGER.debug("Job HealthCheck done.");
+        reconcile();
+    }
 
+    void reconcile() {
+        long start = System.currentTimeMillis();
+        membership.refresh();
+        final Set<String> tracked = ConcurrentHashMap.newKeySet();
+        topology.getPools().parallelStream().forEach(backendPool -> {
+            final Collection<BackendView> backendsOfPool = topology.getBackends(backendPool.getId());
+            if (!backendsOfPool.isEmpty()) {
+                trackBackendPool(backendsOfPool, getProperties(backendPool), tracked);
+            }
+        });
+        checkScheduler.retain(tracked);
+
+        long skippedBusy = checkScheduler.drainSkippedBusy();
+        long skippedFull = checkScheduler.drainSkippedFull();
+        metrics.reconcile(System.currentTimeMillis() - start, checkScheduler.size(), checkScheduler.getInFlight(),
+                skippedBusy, skippedFull);
+        if (skippedBusy + skippedFull > 0) {
+            LOGGER.warn(HealthCheckJob.class.getSimpleName() + ": skipped " + skippedBusy +
+                    " check(s) still running and " + skippedFull + " check(s) over the in-flight limit");
+        }
+        LOGGER.debug("Job HealthCheck done (" + checkScheduler.size() + " backends scheduled, " +
+                checkScheduler.getInFlight() + " in flight).");
     }
 
-    private Map<String, Object> getProperties(final Entity pool) {
+    Map<String, Object> getProperties(final Entity pool) {
         final Map<String, Object> properties = new HashMap<>(pool.getProperties());
         final String hcBody = Optional.ofNullable((String) properties.get(PROP_HEALTHCHECK_RETURN))
                                         .orElse(System.getProperty(HealthChecker.PROP_HEALTHCHECKER_DEF_BODY, ""));
@@ -123,61 +154,45 @@ public class HealthCheckJob implements Job {
         } catch (Exception e) {
             properties.put(PROP_HEALTHCHECK_CODE, 0);
         }
+        final int hcInterval = Math.max(toInt(properties.get(PROP_HEALTHCHECK_INTERVAL), DEF_INTERVAL), MIN_INTERVAL);
+        final int hcTimeout = toInt(properties.get(PROP_HEALTHCHECK_TIMEOUT),
+                                    Math.min(DEF_TIMEOUT, Math.max(hcInterval - CONN_TIMEOUT_DELTA, hcInterval / 2)));
+        properties.put(PROP_HEALTHCHECK_INTERVAL, hcInterval);
+        properties.put(PROP_HEALTHCHECK_TIMEOUT, Math.max(Math.min(hcTimeout, hcInterval), 1));
+        properties.put(PROP_HEALTHCHECK_RISE, Math.max(toInt(properties.get(PROP_HEALTHCHECK_RISE), DEF_RISE), 1));
+        properties.put(PROP_HEALTHCHECK_FALL, Math.max(toInt(properties.get(PROP_HEALTHCHECK_FALL), DEF_FALL), 1));
+        final Object hcType = properties.get(PROP_HEALTHCHECK_TYPE);
+        properties.put(PROP_HEALTHCHECK_TYPE, TesterType.fromName(hcType != null ? hcType.toString() : null, DEF_TYPE));
         return Collections.unmodifiableMap(properties);
     }
 
-    private void checkBackendPool(final Stream<Backend> streamOfBackends, final Map<String, Object> properties) {
-
-        final String hcBody = (String) properties.get(PROP_HEALTHCHECK_RETURN);
-        final String hcPath = (String) properties.get(PROP_HEALTHCHECK_PATH);
-        final String hcHost = (String) properties.get(PROP_HEALTHCHECK_HOST);
-        final int statusCode = (int) properties.get(PROP_HEALTHCHECK_CODE);
-
-        streamOfBackends.forEach(backend ->
-        {
-            String connTimeOut = System.getProperty(PROP_HEALTHCHECKER_INTERVAL, "10000");
-            String followRedirects = System.getProperty(PROP_HEALTHCHECKER_FOLLOW_REDIR);
+    private int toInt(Object value, int defaultValue) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        try {
+            return value != null ? (int) Double.parseDouble(value.toString()) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
 
-            if (backend != null) {
-                final String hostWithPort = backend.getId();
-                final String fullPath = hostWithPort+hcPath;
+    private void trackBackendPool(final Collection<BackendView> backends, final Map<String, Object> properties,
+                                  final Set<String> tracked) {
+        backends.forEach(backend -> {
+            if (backend != null && membership.isLocal(backend.getKey())) {
                 try {
-                    final String futureKey = backend.compoundId();
-                    Future future = futureMap.get(futureKey);
-                    if (future == null || future.isDone() || future.isCancelled()) {
-                        LOGGER.debug("Processing " + futureKey);
-                        future = executor.submit(() -> new RestAssuredTester()
-                                .reset()
-                                .withUrl(fullPath)
-                                .withHost(hcHost)
-                                .withStatusCode(statusCode)
-                                .withBody(hcBody)
-                                .setConnectionTimeOut(connTimeOut != null ?
-                                        Integer.parseInt(connTimeOut) - CONN_TIMEOUT_DELTA : null)
-                                .followRedirects(followRedirects != null ?
-                                        Boolean.parseBoolean(followRedirects) : null)
-                                .setEntity(backend)
-                                .setCache(cacheFactory.getCache(Backend.class.getName()))
-                                .check());
-                        futureMap.put(futureKey, future);
-                    }
+                    checkScheduler.track(backend, properties);
+                    tracked.add(backend.getKey());
                 } catch (Exception e) {
-                    LOGGER.error(hostWithPort+": "+e.getMessage());
-                    e.printStackTrace();
+                    LOGGER.error(backend.getId()+": "+e.getMessage());
                 }
             }
         });
     }
 
     private String getHost(Entity pool) {
-        Cache<String, String> rules = cacheFactory.getCache(Rule.class.getName());
-        Stream<Cache.Entry<String, String>> streamOfRules = StreamSupport.stream(rules.spliterator(), false);
-
-        Optional<Rule> rule = streamOfRules.map(entry -> (Rule) JsonObject.fromJson(entry.getValue(), Rule.class))
-                .filter(r -> pool.getId().equalsIgnoreCase((String) r.getProperty(Rule.PROP_TARGET_ID)))
-                .findAny();
-
-        return rule.isPresent() ? rule.get().getParentId() : "";
+        return topology.getHost(pool.getId());
     }
 
 }
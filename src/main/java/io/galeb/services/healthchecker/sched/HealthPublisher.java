@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.sched;
+
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_FLUSH_INTERVAL;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_FLUSH_SIZE;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.galeb.core.jcache.CacheFactory;
+import io.galeb.core.model.Backend;
+import io.galeb.services.healthchecker.topology.BackendView;
+import io.galeb.services.healthchecker.topology.TopologyModel;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.lang.IgniteFuture;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.cache.Cache;
+
+/**
+ * Coalesces health transitions and writes them to the Backend cache in
+ * batches, either every flush interval or as soon as flush size changes are
+ * pending. Only the latest state of a backend is written, and only its
+ * health field is touched: the cached documents are read back in bulk,
+ * patched and conditionally replaced in one batch (only if unchanged since
+ * the read), instead of re-serializing a possibly stale entity. Documents
+ * that changed in between are read and patched again, and changes that
+ * could not be written stay pending for the next flush.
+ */
+public class HealthPublisher {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final int MAX_REPLACE_ATTEMPTS = 3;
+
+    private final long flushInterval = Long.parseLong(System.getProperty(PROP_HEALTHCHECKER_FLUSH_INTERVAL, "200"));
+    private final int flushSize = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_FLUSH_SIZE, "500"));
+
+    private final CacheFactory cacheFactory;
+    private final TopologyModel topology;
+    private final Map<String, Backend.Health> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, HealthPublisher.class.getSimpleName());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public HealthPublisher(final CacheFactory cacheFactory) {
+        this(cacheFactory, TopologyModel.getInstance());
+    }
+
+    HealthPublisher(final CacheFactory cacheFactory, final TopologyModel topology) {
+        this.cacheFactory = cacheFactory;
+        this.topology = topology;
+    }
+
+    public HealthPublisher start() {
+        flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    public void publish(String key, final Backend.Health health) {
+        pending.put(key, health);
+        if (pending.size() >= flushSize && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    void flush() {
+        flushRequested.set(false);
+        if (pending.isEmpty()) {
+            return;
+        }
+        // what is not written yet: requeued if the cache fails
+        final Map<String, Backend.Health> changes = new HashMap<>();
+        try {
+            final long start = System.currentTimeMillis();
+            pending.forEach((key, health) -> {
+                if (pending.remove(key, health) && topology.hasBackend(key)) {
+                    changes.put(key, health);
+                }
+            });
+            if (changes.isEmpty()) {
+                return;
+            }
+            final Cache<String, String> cache = cacheFactory.getCache(Backend.class.getName());
+            int published = 0;
+            for (int attempt = 0; attempt < MAX_REPLACE_ATTEMPTS && !changes.isEmpty(); attempt++) {
+                final Map<String, String> current = cache.getAll(changes.keySet());
+                // keys without a document were removed meanwhile: nothing to retry
+                changes.keySet().retainAll(current.keySet());
+                final Map<String, String> patched = patch(current, changes);
+                final Set<String> replaced = replaceAll(cache, current, patched);
+                published += replaced.size();
+                changes.keySet().removeAll(replaced);
+            }
+            if (!changes.isEmpty()) {
+                LOGGER.warn(HealthPublisher.class.getSimpleName() + ": " + changes.size() +
+                        " document(s) kept changing, health retried on the next flush");
+                changes.forEach(pending::putIfAbsent);
+                changes.clear();
+            }
+            if (published > 0) {
+                LOGGER.info(HealthPublisher.class.getSimpleName() + ": " + published + " health change" +
+                        (published > 1 ? "s" : "") + " published (" + (System.currentTimeMillis() - start) + " ms)");
+            }
+        } catch (Exception e) {
+            // not written yet: retried on the next flush, unless a newer change is pending by then
+            changes.forEach(pending::putIfAbsent);
+            LOGGER.error(HealthPublisher.class.getSimpleName() + ": " + changes.size() +
+                    " health change(s) requeued: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Patches the health of each document read. Documents that already
+     * have it (or cannot be patched) are dropped from changes.
+     */
+    private Map<String, String> patch(final Map<String, String> current, final Map<String, Backend.Health> changes) {
+        final Map<String, String> patched = new HashMap<>();
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            final String key = entry.getKey();
+            try {
+                final String json = BackendView.withHealth(entry.getValue(), changes.get(key));
+                if (json.equals(entry.getValue())) {
+                    changes.remove(key);
+                } else {
+                    patched.put(key, json);
+                }
+            } catch (IOException | IllegalStateException e) {
+                LOGGER.error(key + ": " + e.getMessage());
+                changes.remove(key);
+            }
+        }
+        return patched;
+    }
+
+    /**
+     * Replaces each patched document only if it is still the one that was
+     * read, so an edit that landed in between (e.g. from the API) is
+     * patched again on the next attempt instead of overwritten. On Ignite
+     * all the replaces are sent at once and then awaited, so a batch costs
+     * about one round trip. Returns the keys replaced.
+     */
+    private Set<String> replaceAll(final Cache<String, String> cache, final Map<String, String> current,
+                                   final Map<String, String> patched) {
+        final Set<String> replaced = new HashSet<>();
+        if (!(cache instanceof IgniteCache)) {
+            patched.forEach((key, json) -> {
+                if (cache.replace(key, current.get(key), json)) {
+                    replaced.add(key);
+                }
+            });
+            return replaced;
+        }
+        final IgniteCache<String, String> async = ((IgniteCache<String, String>) cache).withAsync();
+        final Map<String, IgniteFuture<Boolean>> futures = new HashMap<>();
+        patched.forEach((key, json) -> {
+            async.replace(key, current.get(key), json);
+            futures.put(key, async.<Boolean>future());
+        });
+        futures.forEach((key, future) -> {
+            if (Boolean.TRUE.equals(future.get())) {
+                replaced.add(key);
+            }
+        });
+        return replaced;
+    }
+
+}
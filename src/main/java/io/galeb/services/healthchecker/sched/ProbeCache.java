@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.sched;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import io.galeb.services.healthchecker.testers.CheckResult;
+
+/**
+ * Shares probes between backends with the same check key (address, path,
+ * Host header and expectations): while a probe is in flight, other
+ * backends with that key wait for its result instead of probing again,
+ * and a result is reused for a short time (ttl) after it arrived.
+ */
+class ProbeCache {
+
+    private final long ttl;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private static class Entry {
+        private List<Consumer<CheckResult>> waiters = new ArrayList<>();
+        private CheckResult result = null;
+        private long at = 0L;
+
+        boolean isFresh(long now, long ttl) {
+            return waiters == null && now - at <= ttl;
+        }
+    }
+
+    ProbeCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns true if listener was served (a result at most ttl old, and
+     * never older than the cache ttl) or queued behind a probe in flight.
+     * Otherwise the caller is the one that must probe and then call
+     * {@link #complete} (or {@link #abandon}); listener is called then too.
+     */
+    boolean join(String key, long ttl, final Consumer<CheckResult> listener) {
+        final long maxAge = Math.min(ttl, this.ttl);
+        final long now = System.currentTimeMillis();
+        final CheckResult[] fresh = new CheckResult[1];
+        final boolean[] shared = new boolean[1];
+        entries.compute(key, (k, entry) -> {
+            if (entry != null && entry.waiters != null) {
+                entry.waiters.add(listener);
+                shared[0] = true;
+                return entry;
+            }
+            if (entry != null && entry.isFresh(now, maxAge)) {
+                fresh[0] = entry.result;
+                shared[0] = true;
+                return entry;
+            }
+            final Entry probing = new Entry();
+            probing.waiters.add(listener);
+            return probing;
+        });
+        if (fresh[0] != null) {
+            listener.accept(fresh[0]);
+        }
+        return shared[0];
+    }
+
+    /**
+     * Keeps the result and hands it to everyone waiting for it.
+     */
+    void complete(String key, final CheckResult result) {
+        final List<Consumer<CheckResult>> waiters = takeWaiters(key, result);
+        if (waiters != null) {
+            waiters.forEach(waiter -> waiter.accept(result));
+        }
+    }
+
+    /**
+     * Ends the probe of key without a result (not sent, or failed without
+     * reporting one); waiters get null. Does nothing if it was completed.
+     */
+    void abandon(String key) {
+        final List<Consumer<CheckResult>> waiters = takeWaiters(key, null);
+        if (waiters != null) {
+            waiters.forEach(waiter -> waiter.accept(null));
+        }
+    }
+
+    private List<Consumer<CheckResult>> takeWaiters(String key, final CheckResult result) {
+        final List<List<Consumer<CheckResult>>> taken = new ArrayList<>(1);
+        entries.computeIfPresent(key, (k, entry) -> {
+            if (entry.waiters == null) {
+                return entry;
+            }
+            taken.add(entry.waiters);
+            if (result == null) {
+                return null;
+            }
+            entry.waiters = null;
+            entry.result = result;
+            entry.at = System.currentTimeMillis();
+            return entry;
+        });
+        return taken.isEmpty() ? null : taken.get(0);
+    }
+
+    /**
+     * Drops the results that are no longer fresh.
+     */
+    void purge() {
+        final long now = System.currentTimeMillis();
+        entries.entrySet().removeIf(e -> e.getValue().waiters == null && !e.getValue().isFresh(now, ttl));
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.sched;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.galeb.services.healthchecker.cluster.ConsistentHash;
+import io.galeb.services.healthchecker.testers.CheckResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Probe state of every backend, checkpointed to a local file so a restarted
+ * checker resumes where it stopped: same streaks, same last result and the
+ * same place in the interval, instead of probing everything at once.
+ *
+ * The file is a header followed by fixed 32 byte records (key hash, next
+ * due, last latency, streaks, back-off, last cause), written through a
+ * memory mapping to a temporary file that then replaces the previous one.
+ * The cause is stored as the hash of its name, so reordering the enum does
+ * not change what an old file means; a cause that no longer exists is
+ * read as no result.
+ */
+class StateSnapshot {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final int MAGIC = 0x47484353; // GHCS
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 32;
+    private static final int NO_RESULT = 0;
+
+    private static class Saved {
+        private final long nextDue;
+        private final int latency;
+        private final int successes;
+        private final int failures;
+        private final int backoff;
+        private final int cause;
+
+        Saved(long nextDue, int latency, int successes, int failures, int backoff, int cause) {
+            this.nextDue = nextDue;
+            this.latency = latency;
+            this.successes = successes;
+            this.failures = failures;
+            this.backoff = backoff;
+            this.cause = cause;
+        }
+    }
+
+    private final Path file;
+    private volatile Map<Long, Saved> saved = new HashMap<>();
+
+    StateSnapshot(final Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the last checkpoint, if any. Returns how many backends it has.
+     */
+    int load() {
+        if (file == null || !Files.isRegularFile(file)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                LOGGER.warn(StateSnapshot.class.getSimpleName() + ": ignoring " + file + " (unknown format)");
+                return 0;
+            }
+            final int count = Math.min(buffer.getInt(8), (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE);
+            final Map<Long, Saved> records = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                final int offset = HEADER_SIZE + i * RECORD_SIZE;
+                records.put(buffer.getLong(offset), new Saved(buffer.getLong(offset + 8), buffer.getInt(offset + 16),
+                        buffer.getShort(offset + 20), buffer.getShort(offset + 22), buffer.get(offset + 24),
+                        buffer.getInt(offset + 28)));
+            }
+            saved = records;
+            LOGGER.info(StateSnapshot.class.getSimpleName() + ": " + count + " backends loaded from " + file +
+                    " (saved " + (System.currentTimeMillis() - buffer.getLong(16)) / 1000L + " s ago)");
+            return count;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error(StateSnapshot.class.getSimpleName() + ": " + file + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Restores the saved streaks, back-off and last result of a backend
+     * seen for the first time, and returns its saved next due time (null
+     * if unknown).
+     */
+    Long restore(final CheckState state) {
+        final Map<Long, Saved> records = saved;
+        if (records.isEmpty()) {
+            return null;
+        }
+        final Saved record = records.get(ConsistentHash.hash(state.getKey()));
+        if (record == null) {
+            return null;
+        }
+        CheckResult lastResult = null;
+        for (CheckResult.Cause cause : CheckResult.Cause.values()) {
+            if (codeOf(cause) == record.cause) {
+                lastResult = new CheckResult(cause, record.latency);
+                break;
+            }
+        }
+        state.restore(record.successes, record.failures, record.backoff, lastResult);
+        return record.nextDue;
+    }
+
+    /**
+     * Drops what was loaded, once every known backend had its chance.
+     */
+    void forget() {
+        if (!saved.isEmpty()) {
+            saved = new HashMap<>();
+        }
+    }
+
+    void save(final Collection<CheckState> states) {
+        if (file == null) {
+            return;
+        }
+        final List<CheckState> snapshot = new ArrayList<>(states);
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            // a fresh file, never through whatever (e.g. a symlink) was left at that name
+            Files.deleteIfExists(temp);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        HEADER_SIZE + (long) snapshot.size() * RECORD_SIZE);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, snapshot.size());
+                buffer.putLong(16, System.currentTimeMillis());
+                int offset = HEADER_SIZE;
+                for (CheckState state : snapshot) {
+                    final CheckResult lastResult = state.getLastResult();
+                    buffer.putLong(offset, ConsistentHash.hash(state.getKey()));
+                    buffer.putLong(offset + 8, state.getNextDue());
+                    buffer.putInt(offset + 16, lastResult != null ? (int) lastResult.getLatency() : 0);
+                    buffer.putShort(offset + 20, (short) Math.min(state.getSuccesses(), Short.MAX_VALUE));
+                    buffer.putShort(offset + 22, (short) Math.min(state.getFailures(), Short.MAX_VALUE));
+                    buffer.put(offset + 24, (byte) state.getBackoff());
+                    buffer.putInt(offset + 28, lastResult != null ? codeOf(lastResult.getCause()) : NO_RESULT);
+                    offset += RECORD_SIZE;
+                }
+                buffer.force();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.debug(StateSnapshot.class.getSimpleName() + ": " + snapshot.size() + " backends saved to " + file);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error(StateSnapshot.class.getSimpleName() + ": " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static int codeOf(final CheckResult.Cause cause) {
+        return cause.name().hashCode();
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.sched;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * One virtual thread per task, looked up at runtime so the sources still
+ * build for Java 8: only available when running on a JDK with virtual
+ * threads (21+).
+ */
+class VirtualThreads {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private VirtualThreads() {
+        // static only
+    }
+
+    /**
+     * Returns a virtual thread per task executor, or null if this JVM has
+     * none.
+     */
+    static ExecutorService newExecutor() {
+        try {
+            final MethodHandle factory = MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) factory.invoke();
+        } catch (Throwable e) {
+            LOGGER.warn(VirtualThreads.class.getSimpleName() + ": not available on Java " +
+                    System.getProperty("java.version") + " (" + e + "), using platform threads");
+            return null;
+        }
+    }
+
+}
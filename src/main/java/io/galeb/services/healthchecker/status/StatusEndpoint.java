@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.status;
+
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_STATUS_HOST;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_STATUS_PORT;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.stream.JsonWriter;
+import io.galeb.core.model.Backend;
+import io.galeb.services.healthchecker.metrics.HealthCheckMetrics;
+import io.galeb.services.healthchecker.metrics.LatencyHistogram;
+import io.galeb.services.healthchecker.sched.CheckScheduler;
+import io.galeb.services.healthchecker.sched.CheckState;
+import io.galeb.services.healthchecker.testers.CheckResult;
+import io.galeb.services.healthchecker.topology.BackendView;
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Read-only HTTP view of what the checker is doing, as JSON:
+ * <ul>
+ *   <li>GET /status: in-flight checks, schedule depth, last reconcile
+ *   pass, probe latency percentiles of the last interval and a summary
+ *   per pool;</li>
+ *   <li>GET /status/backends[?pool=id]: last result of every backend.</li>
+ * </ul>
+ * Only volatile fields and lock-free structures are read, on an Undertow
+ * worker thread, and the JSON is streamed to the client as it is built.
+ * Off unless healthchecker.statusPort is set to a positive port; it
+ * listens on healthchecker.statusHost (default 127.0.0.1).
+ */
+public class StatusEndpoint implements HttpHandler {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final String STATUS_PATH = "/status";
+    private static final String BACKENDS_PATH = "/status/backends";
+
+    private final int port = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_STATUS_PORT, "0"));
+    private final String host = System.getProperty(PROP_HEALTHCHECKER_STATUS_HOST, "127.0.0.1");
+
+    private final CheckScheduler checkScheduler;
+    private final HealthCheckMetrics metrics = HealthCheckMetrics.getInstance();
+    private Undertow server = null;
+
+    private static class PoolSummary {
+        private int backends = 0;
+        private int inFlight = 0;
+        private long maxLatency = 0L;
+        private final Map<Backend.Health, Integer> health = new EnumMap<>(Backend.Health.class);
+        private final Map<CheckResult.Cause, Integer> results = new EnumMap<>(CheckResult.Cause.class);
+    }
+
+    public StatusEndpoint(final CheckScheduler checkScheduler) {
+        this.checkScheduler = checkScheduler;
+    }
+
+    public StatusEndpoint start() {
+        if (port <= 0) {
+            return this;
+        }
+        try {
+            server = Undertow.builder()
+                             .addHttpListener(port, host)
+                             .setIoThreads(2)
+                             .setWorkerThreads(2)
+                             .setHandler(this)
+                             .build();
+            server.start();
+            LOGGER.info(StatusEndpoint.class.getSimpleName() + ": listening on " + host + ":" + port);
+        } catch (RuntimeException e) {
+            server = null;
+            LOGGER.error(StatusEndpoint.class.getSimpleName() + ": " + host + ":" + port + ": " + e.getMessage());
+        }
+        return this;
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this);
+            return;
+        }
+        if (!Methods.GET.equals(exchange.getRequestMethod())) {
+            exchange.setStatusCode(405);
+            exchange.getResponseHeaders().put(Headers.ALLOW, Methods.GET_STRING);
+            exchange.endExchange();
+            return;
+        }
+        final String path = exchange.getRequestPath();
+        final boolean backends = BACKENDS_PATH.equals(path);
+        if (!backends && !STATUS_PATH.equals(path) && !"/".equals(path)) {
+            exchange.setStatusCode(404);
+            exchange.endExchange();
+            return;
+        }
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json; charset=UTF-8");
+        exchange.startBlocking();
+        try (JsonWriter writer = new JsonWriter(
+                new OutputStreamWriter(exchange.getOutputStream(), StandardCharsets.UTF_8))) {
+            if (backends) {
+                final Deque<String> pool = exchange.getQueryParameters().get("pool");
+                writeBackends(writer, pool != null ? pool.peekFirst() : null);
+            } else {
+                writeStatus(writer);
+            }
+        } catch (IOException e) {
+            LOGGER.debug(StatusEndpoint.class.getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    private void writeStatus(final JsonWriter writer) throws IOException {
+        final LatencyHistogram latencies = metrics.getLastLatencies();
+        writer.beginObject();
+        writer.name("time").value(System.currentTimeMillis());
+        writer.name("backends").value(checkScheduler.size());
+        writer.name("inFlight").value(checkScheduler.getInFlight());
+        writer.name("concurrencyLimit").value(checkScheduler.getConcurrencyLimit());
+        writer.name("queueDepth").value(checkScheduler.getQueueDepth());
+        writer.name("lastReconcile").beginObject()
+              .name("duration").value(metrics.getLastReconcile())
+              .name("at").value(metrics.getLastReconcileAt())
+              .endObject();
+        writer.name("latency").beginObject()
+              .name("count").value(latencies.count())
+              .name("p50").value(latencies.percentile(0.50))
+              .name("p90").value(latencies.percentile(0.90))
+              .name("p99").value(latencies.percentile(0.99))
+              .name("max").value(latencies.percentile(1.0))
+              .endObject();
+        writer.name("pools").beginObject();
+        for (Map.Entry<String, PoolSummary> pool : summarize().entrySet()) {
+            final PoolSummary summary = pool.getValue();
+            writer.name(pool.getKey()).beginObject();
+            writer.name("backends").value(summary.backends);
+            writer.name("inFlight").value(summary.inFlight);
+            writer.name("maxLatency").value(summary.maxLatency);
+            writer.name("health").beginObject();
+            for (Map.Entry<Backend.Health, Integer> health : summary.health.entrySet()) {
+                writer.name(health.getKey().name()).value(health.getValue());
+            }
+            writer.endObject();
+            writer.name("results").beginObject();
+            for (Map.Entry<CheckResult.Cause, Integer> result : summary.results.entrySet()) {
+                writer.name(result.getKey().name()).value(result.getValue());
+            }
+            writer.endObject();
+            writer.endObject();
+        }
+        writer.endObject();
+        writer.endObject();
+    }
+
+    private Map<String, PoolSummary> summarize() {
+        final Map<String, PoolSummary> pools = new HashMap<>();
+        for (CheckState state : checkScheduler.getStates()) {
+            final BackendView backend = state.getBackend();
+            final PoolSummary summary = pools.computeIfAbsent(String.valueOf(backend.getParentId()),
+                    k -> new PoolSummary());
+            final CheckResult lastResult = state.getLastResult();
+            summary.backends++;
+            summary.health.merge(backend.getHealth(), 1, Integer::sum);
+            if (state.isInFlight()) {
+                summary.inFlight++;
+            }
+            if (lastResult != null) {
+                summary.results.merge(lastResult.getCause(), 1, Integer::sum);
+                summary.maxLatency = Math.max(summary.maxLatency, lastResult.getLatency());
+            }
+        }
+        return pools;
+    }
+
+    private void writeBackends(final JsonWriter writer, String poolId) throws IOException {
+        final long now = System.currentTimeMillis();
+        writer.beginArray();
+        for (CheckState state : checkScheduler.getStates()) {
+            final BackendView backend = state.getBackend();
+            if (poolId != null && !poolId.equals(backend.getParentId())) {
+                continue;
+            }
+            final CheckResult lastResult = state.getLastResult();
+            writer.beginObject();
+            writer.name("key").value(state.getKey());
+            writer.name("id").value(backend.getId());
+            writer.name("pool").value(backend.getParentId());
+            writer.name("health").value(backend.getHealth().name());
+            writer.name("inFlight").value(state.isInFlight());
+            writer.name("dueIn").value(state.getNextDue() - now);
+            if (lastResult != null) {
+                writer.name("result").value(lastResult.getCause().name());
+                writer.name("latency").value(lastResult.getLatency());
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.testers;
+
+import io.galeb.core.json.JsonObject;
+import io.galeb.core.model.Backend;
+import io.galeb.core.model.Entity;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.cache.Cache;
+
+public abstract class AbstractTester implements TestExecutor {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    protected String url = null;
+    protected String host = null;
+    protected int statusCode = 0;
+    protected String body = null;
+    protected boolean followRedirects = false;
+    protected int connectionTimeout = 5000;
+    protected Entity entity = null;
+    protected Cache<String, String> cache;
+    protected Consumer<CheckResult> resultListener = null;
+    protected long startNanos = 0L;
+    // set where a non-blocking probe ends, so waiting for the executor is not counted as latency
+    protected long endNanos = 0L;
+
+    @Override
+    public TestExecutor setCache(final Cache<String, String> cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    @Override
+    public TestExecutor onResult(final Consumer<CheckResult> listener) {
+        this.resultListener = listener;
+        return this;
+    }
+
+    @Override
+    public TestExecutor setEntity(Entity entity) {
+        this.entity = entity;
+        return this;
+    }
+
+    @Override
+    public TestExecutor withUrl(String url) {
+        this.url = url;
+        return this;
+    }
+
+    @Override
+    public TestExecutor withHost(String host) {
+        this.host = host;
+        return this;
+    }
+
+    @Override
+    public TestExecutor withStatusCode(int statusCode) {
+        this.statusCode = statusCode;
+        return this;
+    }
+
+    @Override
+    public TestExecutor withBody(String body) {
+        this.body = body;
+        return this;
+    }
+
+    @Override
+    public TestExecutor followRedirects(Boolean follow) {
+        if (follow != null) {
+            followRedirects = follow;
+        }
+        return this;
+    }
+
+    @Override
+    public TestExecutor setConnectionTimeOut(Integer timeout) {
+        if (timeout != null) {
+            connectionTimeout = timeout;
+        }
+        return this;
+    }
+
+    @Override
+    public TestExecutor reset() {
+        url = null;
+        host = null;
+        statusCode = 0;
+        body = null;
+        return this;
+    }
+
+    protected void markStart() {
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Runs the result handling of a non-blocking probe on the executor
+     * (inline without one, or if it is saturated) and completes future.
+     * The latency is taken now, on the thread that saw the probe end.
+     */
+    protected void complete(final ExecutorService executor, final CompletableFuture<Void> future, final Runnable task) {
+        endNanos = System.nanoTime();
+        final Runnable completion = () -> {
+            try {
+                task.run();
+                future.complete(null);
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        };
+        if (executor == null) {
+            completion.run();
+            return;
+        }
+        try {
+            executor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    protected void notifyHealthOnCheck(final CheckResult.Cause cause) {
+        if (resultListener != null) {
+            long end = endNanos > 0L ? endNanos : System.nanoTime();
+            long latency = startNanos > 0L ? TimeUnit.NANOSECONDS.toMillis(end - startNanos) : 0L;
+            resultListener.accept(new CheckResult(cause, latency));
+            return;
+        }
+        notifyHealthOnCheck(cause == CheckResult.Cause.OK);
+    }
+
+    protected void notifyHealthOnCheck(boolean isOk) {
+        if (entity instanceof Backend) {
+            Backend backend = (Backend)entity;
+            Backend.Health lastHealth = backend.getHealth();
+            LOGGER.debug("Last Health " + entity.compoundId() + " is "+ lastHealth.toString());
+            if (isOk) {
+                backend.setHealth(Backend.Health.HEALTHY);
+            } else {
+                backend.setHealth(Backend.Health.DEAD);
+            }
+            if (backend.getHealth()!=lastHealth) {
+                LOGGER.debug("New Health " + entity.compoundId() + " is "+ backend.getHealth().toString());
+                String hostWithPort = backend.getId();
+                if (isOk) {
+                    LOGGER.info(hostWithPort+" is OK");
+                } else {
+                    LOGGER.warn(hostWithPort+" is FAILED");
+                }
+                cache.replace(entity.compoundId(), JsonObject.toJsonString(backend));
+            }
+        } else {
+            LOGGER.warn("Entity is NOT Backend");
+        }
+    }
+
+}
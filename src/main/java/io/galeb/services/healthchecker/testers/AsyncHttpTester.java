@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.testers;
+
+import static io.galeb.services.healthchecker.HealthChecker.HEALTHCHECKER_USERAGENT;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.AsyncByteConsumer;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.protocol.HttpContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Non-blocking tester. Requests run on the few IO reactor threads of a
+ * shared async client and reuse its pooled keep-alive connections; only
+ * the result handling goes back to the caller's executor, so a slow
+ * backend does not hold a worker thread.
+ */
+public class AsyncHttpTester extends AbstractTester {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static volatile boolean clientStarted = false;
+
+    private static class ClientHolder {
+        private static final CloseableHttpAsyncClient CLIENT = newClient();
+
+        private static CloseableHttpAsyncClient newClient() {
+            final CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                    .setConnectionManager(ConnectionPools.async())
+                    .setUserAgent(HEALTHCHECKER_USERAGENT)
+                    .setThreadFactory(ConnectionPools.daemonThreads(AsyncHttpTester.class.getSimpleName()))
+                    .build();
+            client.start();
+            clientStarted = true;
+            return client;
+        }
+    }
+
+    /**
+     * Closes the shared client (and its connection pool), if it was ever
+     * started.
+     */
+    static void closeClient() {
+        if (!clientStarted) {
+            return;
+        }
+        try {
+            ClientHolder.CLIENT.close();
+        } catch (IOException e) {
+            LOGGER.error(AsyncHttpTester.class.getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void check() {
+        try {
+            submit(null).get();
+        } catch (Exception e) {
+            LOGGER.warn(url+" >>> Backend FAIL ("+e.getMessage()+")");
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> submit(ExecutorService executor) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final HttpGet request = new HttpGet(url);
+        request.setConfig(RequestConfig.custom()
+                .setConnectTimeout(connectionTimeout)
+                .setSocketTimeout(connectionTimeout)
+                .setConnectionRequestTimeout(connectionTimeout)
+                .setRedirectsEnabled(followRedirects)
+                .build());
+        if (host != null && !"".equals(host)) {
+            request.setHeader(HttpHeaders.HOST, host);
+        }
+
+        markStart();
+        final MatchingConsumer consumer = new MatchingConsumer();
+        ClientHolder.CLIENT.execute(HttpAsyncMethods.create(request), consumer, new FutureCallback<CheckResult.Cause>() {
+            @Override
+            public void completed(CheckResult.Cause cause) {
+                complete(executor, future, () -> notifyHealthOnCheck(cause));
+            }
+
+            @Override
+            public void failed(Exception e) {
+                if (consumer.verdict != null) {
+                    // the connection was dropped on purpose, the response had been judged already
+                    complete(executor, future, () -> notifyHealthOnCheck(consumer.verdict));
+                    return;
+                }
+                String message = e.getMessage();
+                if (message == null) {
+                    message = e.getClass().getSimpleName();
+                }
+                LOGGER.warn(url+" >>> Backend FAIL ("+message+")");
+                complete(executor, future, () -> notifyHealthOnCheck(CheckResult.Cause.of(e)));
+            }
+
+            @Override
+            public void cancelled() {
+                LOGGER.warn(url+" >>> Backend FAIL (cancelled)");
+                complete(executor, future, () -> notifyHealthOnCheck(CheckResult.Cause.ERROR));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Judges the response as it arrives: the status line first, then the
+     * body bytes through a {@link BodyMatcher}. Nothing is buffered; bytes
+     * after the verdict are discarded, and the exchange is aborted (which
+     * drops the connection) if more than the body limit would be read.
+     */
+    private class MatchingConsumer extends AsyncByteConsumer<CheckResult.Cause> {
+
+        private final BodyMatcher matcher = body != null && !"".equals(body) ?
+                new BodyMatcher(body, BodyMatcher.LIMIT) : null;
+        private volatile CheckResult.Cause verdict = null;
+        private long discarded = 0L;
+
+        @Override
+        protected void onResponseReceived(final HttpResponse response) {
+            final int responseStatusCode = response.getStatusLine().getStatusCode();
+            if (statusCode > 0) {
+                if (responseStatusCode != statusCode) {
+                    LOGGER.warn(url+" >>> STATUS CODE NOT MATCH ("+statusCode+")");
+                    verdict = CheckResult.Cause.STATUS_MISMATCH;
+                    return;
+                }
+                LOGGER.debug(url+" > STATUS CODE MATCH ("+statusCode+")");
+            }
+            if (matcher == null) {
+                verdict = CheckResult.Cause.OK;
+            }
+        }
+
+        @Override
+        protected void onByteReceived(final ByteBuffer bytes, final IOControl ioControl) throws IOException {
+            if (verdict == null) {
+                if (matcher.feed(bytes)) {
+                    LOGGER.debug(url+" > BODY MATCH ("+body+")");
+                    verdict = CheckResult.Cause.OK;
+                } else if (matcher.isOverLimit()) {
+                    LOGGER.warn(url+" >>> BODY NOT MATCH ("+body+") in the first "+BodyMatcher.LIMIT+" bytes");
+                    verdict = CheckResult.Cause.BODY_TOO_LARGE;
+                    throw new IOException("body limit reached");
+                }
+            }
+            discarded += bytes.remaining();
+            bytes.position(bytes.limit());
+            if (verdict != null && discarded > BodyMatcher.LIMIT) {
+                throw new IOException("body limit reached");
+            }
+        }
+
+        @Override
+        protected CheckResult.Cause buildResult(final HttpContext context) {
+            if (verdict == null) {
+                LOGGER.warn(url+" >>> BODY NOT MATCH ("+body+")");
+                verdict = matcher.getCause();
+            }
+            return verdict;
+        }
+
+        @Override
+        protected void releaseResources() {
+            // nothing is kept
+        }
+    }
+
+}
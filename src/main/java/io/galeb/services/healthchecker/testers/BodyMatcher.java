@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.testers;
+
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_BODY_LIMIT;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Looks for the expected body (as UTF-8 bytes) in a response that arrives
+ * in pieces, without keeping the response: only the partial match state is
+ * carried from one piece to the next (Knuth-Morris-Pratt). At most limit
+ * bytes are read: a response without the expected body in its first limit
+ * bytes fails as {@link CheckResult.Cause#BODY_TOO_LARGE}.
+ */
+final class BodyMatcher {
+
+    static final long LIMIT = Long.parseLong(System.getProperty(PROP_HEALTHCHECKER_BODY_LIMIT, "65536"));
+
+    private static final int CHUNK = 4096;
+
+    private final byte[] pattern;
+    private final int[] fallback;
+    private final long limit;
+    private int matched = 0;
+    private long read = 0L;
+    private boolean found;
+
+    BodyMatcher(String expected, long limit) {
+        this.pattern = expected.getBytes(StandardCharsets.UTF_8);
+        this.fallback = fallbackOf(pattern);
+        this.limit = limit;
+        this.found = pattern.length == 0;
+    }
+
+    private static int[] fallbackOf(final byte[] pattern) {
+        final int[] fallback = new int[pattern.length];
+        int k = 0;
+        for (int i = 1; i < pattern.length; i++) {
+            while (k > 0 && pattern[i] != pattern[k]) {
+                k = fallback[k - 1];
+            }
+            if (pattern[i] == pattern[k]) {
+                k++;
+            }
+            fallback[i] = k;
+        }
+        return fallback;
+    }
+
+    /**
+     * Consumes bytes up to the end of the buffer, the end of the match or
+     * the read limit, whichever comes first. Returns true once found.
+     */
+    boolean feed(final ByteBuffer bytes) {
+        while (!found && bytes.hasRemaining() && read < limit) {
+            final byte b = bytes.get();
+            read++;
+            while (matched > 0 && b != pattern[matched]) {
+                matched = fallback[matched - 1];
+            }
+            if (b == pattern[matched]) {
+                matched++;
+            }
+            found = matched == pattern.length;
+        }
+        return found;
+    }
+
+    /**
+     * Reads from the stream until the match, the read limit or the end of
+     * the stream. Returns true once found.
+     */
+    boolean feed(final InputStream in) throws IOException {
+        final byte[] chunk = new byte[CHUNK];
+        int count;
+        while (!found && read < limit && (count = in.read(chunk, 0, (int) Math.min(CHUNK, limit - read))) >= 0) {
+            feed(ByteBuffer.wrap(chunk, 0, count));
+        }
+        return found;
+    }
+
+    /**
+     * Outcome of the match once the response was read (or the limit hit).
+     */
+    CheckResult.Cause getCause() {
+        if (found) {
+            return CheckResult.Cause.OK;
+        }
+        return read >= limit ? CheckResult.Cause.BODY_TOO_LARGE : CheckResult.Cause.BODY_MISMATCH;
+    }
+
+    boolean isFound() {
+        return found;
+    }
+
+    /**
+     * Whether the read limit was reached before a match.
+     */
+    boolean isOverLimit() {
+        return !found && read >= limit;
+    }
+
+}
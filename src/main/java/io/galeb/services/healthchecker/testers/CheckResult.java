@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.testers;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Outcome of one probe: why it failed (or {@link Cause#OK}) and how long it took.
+ */
+public class CheckResult {
+
+    public enum Cause {
+        OK,
+        TIMEOUT,
+        CONNECT_REFUSED,
+        STATUS_MISMATCH,
+        BODY_MISMATCH,
+        BODY_TOO_LARGE,
+        ERROR;
+
+        public static Cause of(Throwable error) {
+            for (Throwable t = error; t != null; t = t.getCause()) {
+                if (t instanceof SocketTimeoutException || t instanceof ConnectTimeoutException) {
+                    return TIMEOUT;
+                }
+                if (t instanceof ConnectException) {
+                    return CONNECT_REFUSED;
+                }
+            }
+            return ERROR;
+        }
+    }
+
+    private final Cause cause;
+    private final long latency;
+
+    public CheckResult(final Cause cause, long latency) {
+        this.cause = cause;
+        this.latency = latency;
+    }
+
+    public boolean isOk() {
+        return cause == Cause.OK;
+    }
+
+    public Cause getCause() {
+        return cause;
+    }
+
+    /**
+     * Probe duration in milliseconds.
+     */
+    public long getLatency() {
+        return latency;
+    }
+}
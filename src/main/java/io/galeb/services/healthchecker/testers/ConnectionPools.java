@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.testers;
+
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_CONN_IDLE_TIMEOUT;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_IO_THREADS;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_MAX_CONN;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_MAX_CONN_PER_ROUTE;
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_MAX_INFLIGHT;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keep-alive connection pools shared by all probes, bounded per route, so
+ * repeated checks of the same backend reuse their TCP (and TLS) connection
+ * between cycles. Idle and expired connections are evicted periodically.
+ */
+final class ConnectionPools {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    static final int MAX_CONN = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_MAX_CONN, "10000"));
+    // many pools can share one backend (route): by default a route may take as many probes as the scheduler runs at once
+    static final int MAX_CONN_PER_ROUTE = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_MAX_CONN_PER_ROUTE,
+            String.valueOf(Math.min(MAX_CONN, Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_MAX_INFLIGHT, "1000"))))));
+    static final long IDLE_TIMEOUT = Long.parseLong(System.getProperty(PROP_HEALTHCHECKER_CONN_IDLE_TIMEOUT, "30000"));
+
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, ConnectionPools.class.getSimpleName() + "-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ConnectionPools() {
+        // utility class
+    }
+
+    // RestAssured 2.x only takes a DefaultHttpClient, which needs the legacy (deprecated) connection manager API
+    private static class BlockingHolder {
+        @SuppressWarnings("deprecation")
+        private static final org.apache.http.impl.conn.PoolingClientConnectionManager MANAGER = newManager();
+
+        @SuppressWarnings("deprecation")
+        private static org.apache.http.impl.conn.PoolingClientConnectionManager newManager() {
+            final org.apache.http.impl.conn.PoolingClientConnectionManager manager =
+                    new org.apache.http.impl.conn.PoolingClientConnectionManager();
+            manager.setMaxTotal(MAX_CONN);
+            manager.setDefaultMaxPerRoute(MAX_CONN_PER_ROUTE);
+            evict(() -> {
+                manager.closeExpiredConnections();
+                manager.closeIdleConnections(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+            });
+            return manager;
+        }
+    }
+
+    private static class AsyncHolder {
+        private static final PoolingNHttpClientConnectionManager MANAGER = newManager();
+
+        private static PoolingNHttpClientConnectionManager newManager() {
+            int ioThreads = Integer.parseInt(System.getProperty(PROP_HEALTHCHECKER_IO_THREADS,
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            try {
+                final PoolingNHttpClientConnectionManager manager = new PoolingNHttpClientConnectionManager(
+                        new DefaultConnectingIOReactor(IOReactorConfig.custom().setIoThreadCount(ioThreads).build(),
+                                daemonThreads(ConnectionPools.class.getSimpleName() + "-io")));
+                manager.setMaxTotal(MAX_CONN);
+                manager.setDefaultMaxPerRoute(MAX_CONN_PER_ROUTE);
+                evict(() -> {
+                    manager.closeExpiredConnections();
+                    manager.closeIdleConnections(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+                });
+                return manager;
+            } catch (IOReactorException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    static org.apache.http.impl.conn.PoolingClientConnectionManager blocking() {
+        return BlockingHolder.MANAGER;
+    }
+
+    static PoolingNHttpClientConnectionManager async() {
+        return AsyncHolder.MANAGER;
+    }
+
+    /**
+     * Daemon threads named prefix-1, prefix-2...: the client threads must
+     * not keep the JVM alive once the checker stops.
+     */
+    static ThreadFactory daemonThreads(String prefix) {
+        final AtomicInteger count = new AtomicInteger(0);
+        return r -> {
+            final Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static void evict(final Runnable eviction) {
+        long period = Math.max(IDLE_TIMEOUT / 2, 1000L);
+        EVICTOR.scheduleWithFixedDelay(() -> {
+            try {
+                eviction.run();
+            } catch (Exception e) {
+                LOGGER.error(e);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+}
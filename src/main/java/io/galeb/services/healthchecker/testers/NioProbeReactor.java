@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.testers;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A single selector thread driving the lightweight probes (TCP connect and
+ * raw HTTP): no connection pool, no HTTP client, one read buffer shared by
+ * every probe. Each probe has an overall deadline, checked every few
+ * milliseconds. Host names are resolved by a few resolver threads, so a
+ * slow DNS never blocks the caller nor the selector, and the lookup counts
+ * against the deadline.
+ */
+final class NioProbeReactor implements Runnable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final long EXPIRY_CHECK = 10L;
+    private static final int READ_BUFFER_SIZE = 16384;
+    private static final int RESOLVER_THREADS = 4;
+
+    /**
+     * One probe on one non-blocking channel. Callbacks run on the reactor
+     * thread and must not block.
+     */
+    abstract static class Probe {
+        // unresolved until the resolver hands the probe to the reactor
+        private volatile InetSocketAddress address;
+        private final long deadline;
+        private SocketChannel channel = null;
+        private boolean done = false;
+
+        Probe(final InetSocketAddress address, long timeoutMillis) {
+            this.address = address;
+            this.deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        }
+
+        /**
+         * The connection is up: finish, or change the interest set.
+         */
+        abstract void onConnected(SelectionKey key) throws IOException;
+
+        void onWritable(SelectionKey key) throws IOException {
+            // not interested by default
+        }
+
+        /**
+         * Bytes read are between position and limit; end is true once the
+         * peer closed the connection.
+         */
+        void onReadable(SelectionKey key, ByteBuffer bytes, boolean end) throws IOException {
+            // not interested by default
+        }
+
+        abstract void onDone(CheckResult.Cause cause, String message);
+
+        final SocketChannel channel() {
+            return channel;
+        }
+
+        final void done(final CheckResult.Cause cause, String message) {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignore) {
+                    // already failed
+                }
+            }
+            onDone(cause, message);
+        }
+    }
+
+    private static class Holder {
+        private static final NioProbeReactor REACTOR = new NioProbeReactor().start();
+    }
+
+    private final Queue<Probe> pending = new ConcurrentLinkedQueue<>();
+    private final Set<Probe> resolving = ConcurrentHashMap.newKeySet();
+    private final ExecutorService resolver = newResolver();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final Selector selector;
+
+    private NioProbeReactor() {
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static NioProbeReactor getInstance() {
+        return Holder.REACTOR;
+    }
+
+    /**
+     * Address of a backend url (scheme://host:port/path). A host name is
+     * left unresolved: that is done off the calling thread (see
+     * {@link #register}). An IP literal needs no lookup.
+     */
+    static InetSocketAddress addressOf(String url) {
+        final URI uri = URI.create(url);
+        final String host = uri.getHost();
+        int port = uri.getPort();
+        if (port < 0) {
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+        return isIpLiteral(host) ? new InetSocketAddress(host, port) : InetSocketAddress.createUnresolved(host, port);
+    }
+
+    private static boolean isIpLiteral(String host) {
+        if (host == null || host.isEmpty()) {
+            return false;
+        }
+        if (host.indexOf(':') >= 0) {
+            // IPv6 (URI keeps the brackets)
+            return true;
+        }
+        for (int i = 0; i < host.length(); i++) {
+            final char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ExecutorService newResolver() {
+        final AtomicInteger count = new AtomicInteger(0);
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(RESOLVER_THREADS, RESOLVER_THREADS,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            final Thread thread = new Thread(r, NioProbeReactor.class.getSimpleName() + "-resolver-" +
+                    count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private NioProbeReactor start() {
+        final Thread thread = new Thread(this, NioProbeReactor.class.getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Starts the probe; its address is resolved first if needed. Never
+     * blocks.
+     */
+    void register(final Probe probe) {
+        if (!probe.address.isUnresolved()) {
+            pending.add(probe);
+            selector.wakeup();
+            return;
+        }
+        resolving.add(probe);
+        resolver.execute(() -> {
+            final InetSocketAddress unresolved = probe.address;
+            // stays unresolved if the lookup fails, reported by the reactor
+            probe.address = new InetSocketAddress(unresolved.getHostString(), unresolved.getPort());
+            resolving.remove(probe);
+            pending.add(probe);
+            selector.wakeup();
+        });
+    }
+
+    @Override
+    public void run() {
+        long nextExpiry = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                selector.select(EXPIRY_CHECK);
+                startPending();
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                final long now = System.nanoTime();
+                if (now - nextExpiry >= 0) {
+                    expire(now);
+                    nextExpiry = now + EXPIRY_CHECK * 1000000L;
+                }
+            } catch (Exception e) {
+                LOGGER.error(e);
+            }
+        }
+    }
+
+    private void startPending() {
+        Probe probe;
+        while ((probe = pending.poll()) != null) {
+            if (probe.done) {
+                // expired while resolving
+                continue;
+            }
+            if (probe.address.isUnresolved()) {
+                probe.done(CheckResult.Cause.ERROR, new UnknownHostException(probe.address.getHostString()).toString());
+                continue;
+            }
+            try {
+                probe.channel = SocketChannel.open();
+                probe.channel.configureBlocking(false);
+                probe.channel.socket().setTcpNoDelay(true);
+                final SelectionKey key = probe.channel.register(selector, 0, probe);
+                if (probe.channel.connect(probe.address)) {
+                    probe.onConnected(key);
+                } else {
+                    key.interestOps(SelectionKey.OP_CONNECT);
+                }
+            } catch (IOException e) {
+                probe.done(CheckResult.Cause.of(e), e.getMessage());
+            } catch (Exception e) {
+                probe.done(CheckResult.Cause.ERROR, e.getMessage());
+            }
+        }
+    }
+
+    private void handle(final SelectionKey key) {
+        final Probe probe = (Probe) key.attachment();
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isConnectable()) {
+                probe.channel.finishConnect();
+                key.interestOps(0);
+                probe.onConnected(key);
+            } else if (key.isWritable()) {
+                probe.onWritable(key);
+            } else if (key.isReadable()) {
+                readBuffer.clear();
+                final boolean end = probe.channel.read(readBuffer) < 0;
+                readBuffer.flip();
+                probe.onReadable(key, readBuffer, end);
+            }
+        } catch (IOException e) {
+            probe.done(CheckResult.Cause.of(e), e.getMessage());
+        } catch (Exception e) {
+            probe.done(CheckResult.Cause.ERROR, e.getMessage());
+        }
+    }
+
+    private void expire(long now) {
+        for (SelectionKey key : selector.keys()) {
+            final Probe probe = (Probe) key.attachment();
+            if (probe != null && now - probe.deadline >= 0) {
+                probe.done(CheckResult.Cause.TIMEOUT, "Connection Timeout");
+            }
+        }
+        for (Probe probe : resolving) {
+            if (now - probe.deadline >= 0) {
+                resolving.remove(probe);
+                probe.done(CheckResult.Cause.TIMEOUT, "Timeout resolving " + probe.address.getHostString());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.testers;
+
+import static io.galeb.services.healthchecker.HealthChecker.HEALTHCHECKER_USERAGENT;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Minimal HTTP/1.1 probe: one GET with "Connection: close" on a fresh
+ * connection, reading only the status line and, when a body is expected,
+ * the response bytes up to the first match (see BodyMatcher). Redirects
+ * are not followed and the body is matched on the raw payload (no chunked
+ * or gzip decoding).
+ */
+public class RawHttpTester extends AbstractTester {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final int MAX_STATUS_LINE = 512;
+    private static final int MAX_HEADERS = 16384;
+
+    @Override
+    public void check() {
+        try {
+            submit(null).get();
+        } catch (Exception e) {
+            LOGGER.warn(url+" >>> Backend FAIL ("+e.getMessage()+")");
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> submit(ExecutorService executor) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        markStart();
+        try {
+            final URI uri = URI.create(url);
+            NioProbeReactor.getInstance().register(new HttpProbe(uri, executor, future));
+        } catch (Exception e) {
+            LOGGER.warn(url+" >>> Backend FAIL ("+e.getMessage()+")");
+            complete(executor, future, () -> notifyHealthOnCheck(CheckResult.Cause.ERROR));
+        }
+        return future;
+    }
+
+    private ByteBuffer requestOf(final URI uri) {
+        String path = uri.getRawPath();
+        if (path == null || "".equals(path)) {
+            path = "/";
+        }
+        if (uri.getRawQuery() != null) {
+            path = path + "?" + uri.getRawQuery();
+        }
+        final String hostHeader = host != null && !"".equals(host) ? host :
+                uri.getHost() + (uri.getPort() > 0 ? ":" + uri.getPort() : "");
+        final String request = "GET " + path + " HTTP/1.1\r\n" +
+                               "Host: " + hostHeader + "\r\n" +
+                               "User-Agent: " + HEALTHCHECKER_USERAGENT + "\r\n" +
+                               "Accept: */*\r\n" +
+                               "Connection: close\r\n\r\n";
+        return ByteBuffer.wrap(request.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private class HttpProbe extends NioProbeReactor.Probe {
+
+        private final ByteBuffer request;
+        private final ExecutorService executor;
+        private final CompletableFuture<Void> future;
+        private final BodyMatcher matcher;
+
+        private final byte[] statusLine = new byte[MAX_STATUS_LINE];
+        private int statusLength = 0;
+        private boolean statusDone = false;
+        private boolean headersDone = false;
+        private int headersLength = 0;
+        private int lineLength = 0;
+
+        HttpProbe(final URI uri, final ExecutorService executor, final CompletableFuture<Void> future) {
+            super(NioProbeReactor.addressOf(url), connectionTimeout);
+            this.request = requestOf(uri);
+            this.executor = executor;
+            this.future = future;
+            this.matcher = body != null && !"".equals(body) ? new BodyMatcher(body, BodyMatcher.LIMIT) : null;
+        }
+
+        @Override
+        void onConnected(final SelectionKey key) throws IOException {
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        @Override
+        void onWritable(final SelectionKey key) throws IOException {
+            channel().write(request);
+            if (!request.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        @Override
+        void onReadable(final SelectionKey key, final ByteBuffer bytes, boolean end) {
+            if ((statusDone || readStatusLine(bytes)) && (headersDone || skipHeaders(bytes))) {
+                if (matcher.feed(bytes)) {
+                    LOGGER.debug(url+" > BODY MATCH ("+body+")");
+                    done(CheckResult.Cause.OK, null);
+                    return;
+                }
+                if (matcher.isOverLimit() || end) {
+                    LOGGER.warn(url+" >>> BODY NOT MATCH ("+body+")");
+                    done(matcher.getCause(), null);
+                    return;
+                }
+            }
+            if (end) {
+                done(CheckResult.Cause.ERROR, "connection closed");
+            }
+        }
+
+        /**
+         * Returns true once the status line is complete and matches, and a
+         * body check follows.
+         */
+        private boolean readStatusLine(final ByteBuffer bytes) {
+            while (bytes.hasRemaining()) {
+                final byte b = bytes.get();
+                if (b == '\n') {
+                    statusDone = true;
+                    return checkStatus();
+                }
+                if (statusLength == MAX_STATUS_LINE) {
+                    done(CheckResult.Cause.ERROR, "status line too long");
+                    return false;
+                }
+                statusLine[statusLength++] = b;
+            }
+            return false;
+        }
+
+        private boolean checkStatus() {
+            final String line = new String(statusLine, 0, statusLength, StandardCharsets.ISO_8859_1).trim();
+            final int space = line.indexOf(' ');
+            final int responseStatusCode;
+            try {
+                responseStatusCode = Integer.parseInt(line.substring(space + 1, space + 4));
+            } catch (RuntimeException e) {
+                done(CheckResult.Cause.ERROR, "bad status line");
+                return false;
+            }
+            if (statusCode > 0) {
+                if (responseStatusCode != statusCode) {
+                    LOGGER.warn(url+" >>> STATUS CODE NOT MATCH ("+statusCode+")");
+                    done(CheckResult.Cause.STATUS_MISMATCH, null);
+                    return false;
+                }
+                LOGGER.debug(url+" > STATUS CODE MATCH ("+statusCode+")");
+            }
+            if (matcher == null) {
+                done(CheckResult.Cause.OK, null);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Returns true once the blank line ending the headers was read.
+         */
+        private boolean skipHeaders(final ByteBuffer bytes) {
+            while (bytes.hasRemaining()) {
+                final byte b = bytes.get();
+                if (++headersLength > MAX_HEADERS) {
+                    done(CheckResult.Cause.ERROR, "headers too long");
+                    return false;
+                }
+                if (b == '\n') {
+                    if (lineLength == 0) {
+                        headersDone = true;
+                        return true;
+                    }
+                    lineLength = 0;
+                } else if (b != '\r') {
+                    lineLength++;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void onDone(final CheckResult.Cause cause, String message) {
+            if (message != null) {
+                LOGGER.warn(url+" >>> Backend FAIL ("+message+")");
+            }
+            complete(executor, future, () -> notifyHealthOnCheck(cause));
+        }
+    }
+
+}
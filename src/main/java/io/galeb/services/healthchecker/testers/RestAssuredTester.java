@@ -19,24 +19,23 @@ package io.galeb.services.healthchecker.testers;
 import static com.jayway.restassured.RestAssured.with;
 import static com.jayway.restassured.config.HttpClientConfig.httpClientConfig;
 import static io.galeb.services.healthchecker.HealthChecker.HEALTHCHECKER_USERAGENT;
-import static org.hamcrest.Matchers.containsString;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import com.jayway.restassured.response.Header;
-import com.jayway.restassured.response.ValidatableResponse;
+import com.jayway.restassured.response.Response;
 import com.jayway.restassured.specification.RequestSpecification;
-import io.galeb.core.json.JsonObject;
-import io.galeb.core.model.Backend;
-import io.galeb.core.model.Entity;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.params.ClientPNames;
 import org.apache.http.params.CoreConnectionPNames;
 
@@ -47,205 +46,207 @@ import com.jayway.restassured.config.RestAssuredConfig;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import javax.cache.Cache;
-
-public class RestAssuredTester implements TestExecutor {
+public class RestAssuredTester extends AbstractTester {
 
     private static final Logger LOGGER = LogManager.getLogger();
 
-    private String url = null;
-    private String host = null;
-    private int statusCode = 0;
-    private String body = null;
-    private boolean followRedirects = false;
-    private HttpClientConfig httpClientConfig = null;
-    private int connectionTimeout = 5000;
-    private Entity entity = null;
-    private Cache<String, String> cache;
+    private static final Header USER_AGENT = new Header(HttpHeaders.USER_AGENT, HEALTHCHECKER_USERAGENT);
 
-    @Override
-    public TestExecutor setCache(final Cache<String, String> cache) {
-        this.cache = cache;
-        return this;
-    }
+    // the check running on this thread, so the shared client can hand it the request it executes
+    private static final ThreadLocal<RequestHandle> CURRENT = new ThreadLocal<>();
 
-    @Override
-    public TestExecutor setEntity(Entity entity) {
-        this.entity = entity;
-        return this;
-    }
+    // aborts the checks that outlive their timeout, whatever they are blocked on
+    private static final ScheduledThreadPoolExecutor DEADLINES = newDeadlines();
 
-    @Override
-    public TestExecutor withUrl(String url) {
-        this.url = url;
-        return this;
+    private static ScheduledThreadPoolExecutor newDeadlines() {
+        final ScheduledThreadPoolExecutor deadlines = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, RestAssuredTester.class.getSimpleName() + "-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        deadlines.setRemoveOnCancelPolicy(true);
+        return deadlines;
     }
 
-    @Override
-    public TestExecutor withHost(String host) {
-        this.host = host;
-        return this;
-    }
+    private static final HttpClientConfig.HttpClientFactory SHARED_POOL_CLIENT_FACTORY =
+            new HttpClientConfig.HttpClientFactory() {
+                @Override
+                @SuppressWarnings("deprecation")
+                public HttpClient createHttpClient() {
+                    // RestAssured 2.x needs an AbstractHttpClient, hence the legacy (deprecated) client API
+                    final org.apache.http.impl.client.DefaultHttpClient client =
+                            new org.apache.http.impl.client.DefaultHttpClient(ConnectionPools.blocking());
+                    client.addRequestInterceptor((request, context) -> {
+                        final RequestHandle handle = CURRENT.get();
+                        final HttpRequest original = request instanceof org.apache.http.impl.client.RequestWrapper ?
+                                ((org.apache.http.impl.client.RequestWrapper) request).getOriginal() : request;
+                        if (handle != null && original instanceof HttpUriRequest) {
+                            handle.attach((HttpUriRequest) original);
+                        }
+                    });
+                    return client;
+                }
+            };
+
+    /**
+     * The HttpClient request of one check (RestAssured does not expose
+     * it), so the check can abort it: aborting closes the connection
+     * instead of reading the rest of the response to reuse it. Expiring
+     * aborts it as well, or as soon as it is attached if it was not yet.
+     */
+    private static class RequestHandle {
+        private HttpUriRequest request = null;
+        private volatile boolean expired = false;
+
+        synchronized void attach(final HttpUriRequest request) {
+            this.request = request;
+            if (expired) {
+                request.abort();
+            }
+        }
 
-    @Override
-    public TestExecutor withStatusCode(int statusCode) {
-        this.statusCode = statusCode;
-        return this;
-    }
+        synchronized void expire() {
+            expired = true;
+            abort();
+        }
 
-    @Override
-    public TestExecutor withBody(String body) {
-        this.body = body;
-        return this;
-    }
+        boolean isExpired() {
+            return expired;
+        }
 
-    @Override
-    public TestExecutor followRedirects(Boolean follow) {
-        if (follow != null) {
-            followRedirects = follow;
+        synchronized boolean abort() {
+            if (request == null) {
+                return false;
+            }
+            request.abort();
+            return true;
         }
-        return this;
     }
 
-    @Override
-    public TestExecutor setConnectionTimeOut(Integer timeout) {
-        if (timeout != null) {
-            connectionTimeout = timeout;
+    // RestAssuredConfig is immutable: one instance per (timeout, followRedirects) is shared by all checks,
+    // and each one reuses a single HttpClient on top of the shared connection pool
+    private static final Map<String, RestAssuredConfig> CONFIGS = new ConcurrentHashMap<>();
+
+    private static RestAssuredConfig getConfig(int timeout, boolean followRedirects) {
+        return CONFIGS.computeIfAbsent(timeout + ":" + followRedirects, key -> {
             final Map<String, Object> conf = new HashMap<>();
             conf.put(ClientPNames.CONN_MANAGER_TIMEOUT, Long.valueOf(timeout));
             conf.put(CoreConnectionPNames.CONNECTION_TIMEOUT, timeout);
             conf.put(CoreConnectionPNames.SO_TIMEOUT, timeout);
             conf.put(CoreConnectionPNames.STALE_CONNECTION_CHECK, true);
             conf.put("CONNECTION_MANAGER_TIMEOUT", timeout);
-            httpClientConfig = httpClientConfig().withParams(conf);
-        }
-        return this;
-    }
-
-    @Override
-    public TestExecutor reset() {
-        url = null;
-        host = null;
-        statusCode = 0;
-        body = null;
-        httpClientConfig = null;
-        return this;
+            final HttpClientConfig httpClientConfig = httpClientConfig().withParams(conf)
+                    .httpClientFactory(SHARED_POOL_CLIENT_FACTORY)
+                    .reuseHttpClientInstance();
+            final RedirectConfig redirectConfig = RestAssuredConfig.config().getRedirectConfig()
+                                                                   .followRedirects(followRedirects);
+            return RestAssuredConfig.config().redirect(redirectConfig).httpClient(httpClientConfig);
+        });
     }
 
     @Override
     public void check() {
-        RequestSpecification request;
-        ValidatableResponse response = null;
-        RedirectConfig redirectConfig = RestAssuredConfig.config().getRedirectConfig().followRedirects(followRedirects);
-        RestAssuredConfig restAssuredConfig = RestAssuredConfig.config().redirect(redirectConfig);
-
-        if (httpClientConfig == null) {
-            setConnectionTimeOut(connectionTimeout);
-        }
-
-        restAssuredConfig.httpClient(httpClientConfig);
+        RequestSpecification request = with().config(getConfig(connectionTimeout, followRedirects));
 
-        request = with().config(restAssuredConfig);
         if (host != null && !"".equals(host)) {
             Header headerHost = new Header(HttpHeaders.HOST, host);
             request.header(headerHost);
         }
-        Header userAgent = new Header(HttpHeaders.USER_AGENT, HEALTHCHECKER_USERAGENT);
-        request.header(userAgent);
-
-        final ExecutorService executor = Executors.newWorkStealingPool(1);
-        Future<ValidatableResponse> future = null;
+        request.header(USER_AGENT);
 
+        // the request runs on the calling thread: the socket timeouts bound each connect or read,
+        // the deadline bounds the whole check (a backend trickling bytes, a slow body)
+        final RequestHandle handle = new RequestHandle();
+        markStart();
+        final ScheduledFuture<?> deadline = DEADLINES.schedule(handle::expire, connectionTimeout, TimeUnit.MILLISECONDS);
         try {
-            future = executor.submit(new Task(request, url));
-        } catch (RejectedExecutionException e) {
-            LOGGER.debug(e);
+            check(request, handle);
+        } finally {
+            deadline.cancel(false);
         }
+    }
 
+    private void check(final RequestSpecification request, final RequestHandle handle) {
+        Response response = null;
+        CheckResult.Cause failure = null;
+        CURRENT.set(handle);
         try {
-            if (future != null) {
-                response = future.get(connectionTimeout, TimeUnit.MILLISECONDS);
-            } else {
-                LOGGER.warn(url+" >>> NOT RUN - Task problem");
+            response = request.get(url);
+            if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) > connectionTimeout) {
+                release(response.asInputStream(), handle);
+                response = null;
+                failure = CheckResult.Cause.TIMEOUT;
+                LOGGER.warn(url+" >>> Backend FAIL (Connection Timeout ("+connectionTimeout+" ms))");
             }
         } catch (Exception e) {
-            if (future != null) {
-                future.cancel(true);
-            }
             String tempMessage = e.getMessage();
             if (tempMessage == null) {
                 tempMessage = "Connection Timeout ("+connectionTimeout+" ms)";
             }
-            final String message = tempMessage;
+            final String message = handle.isExpired() ? "Deadline (" + connectionTimeout + " ms)" : tempMessage;
+            failure = handle.isExpired() ? CheckResult.Cause.TIMEOUT : CheckResult.Cause.of(e);
             LOGGER.warn(url+" >>> Backend FAIL ("+message+")");
         } finally {
-            executor.shutdownNow();
+            CURRENT.remove();
         }
         if (response == null) {
-            notifyHealthOnCheck(false);
+            notifyHealthOnCheck(failure != null ? failure : CheckResult.Cause.ERROR);
             return;
         }
-        if (statusCode > 0) {
-            try {
-                response.statusCode(statusCode);
+        final InputStream content = response.asInputStream();
+        try {
+            if (statusCode > 0) {
+                if (response.getStatusCode() != statusCode) {
+                    LOGGER.warn(url+" >>> STATUS CODE NOT MATCH ("+statusCode+")");
+                    notifyHealthOnCheck(CheckResult.Cause.STATUS_MISMATCH);
+                    return;
+                }
                 LOGGER.debug(url+" > STATUS CODE MATCH ("+statusCode+")");
-            } catch (AssertionError e) {
-                LOGGER.warn(url+" >>> STATUS CODE NOT MATCH ("+statusCode+")");
-                notifyHealthOnCheck(false);
-                return;
             }
-        }
-        if (body != null && !"".equals(body)) {
-            try {
-                response.body(containsString(body));
+            if (body != null && !"".equals(body)) {
+                final BodyMatcher matcher = new BodyMatcher(body, BodyMatcher.LIMIT);
+                try {
+                    if (content == null || !matcher.feed(content)) {
+                        LOGGER.warn(url+" >>> BODY NOT MATCH ("+body+")");
+                        notifyHealthOnCheck(matcher.getCause());
+                        return;
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn(url+" >>> BODY NOT MATCH ("+body+"): "+e.getMessage());
+                    notifyHealthOnCheck(handle.isExpired() ? CheckResult.Cause.TIMEOUT : CheckResult.Cause.of(e));
+                    return;
+                }
                 LOGGER.debug(url+" > BODY MATCH ("+body+")");
-            } catch (AssertionError e) {
-                LOGGER.warn(url+" >>> BODY NOT MATCH ("+body+")");
-                notifyHealthOnCheck(false);
-                return;
             }
+            notifyHealthOnCheck(CheckResult.Cause.OK);
+        } finally {
+            release(content, handle);
         }
-        notifyHealthOnCheck(true);
     }
 
-    class Task implements Callable<ValidatableResponse> {
-
-        private final RequestSpecification request;
-        private final String url;
-
-        public Task(final RequestSpecification request, String url) {
-            this.request = request;
-            this.url = url;
-        }
-
-        @Override
-        public ValidatableResponse call() throws Exception {
-            return request.get(url).then();
+    /**
+     * Gives the connection back to the pool if the rest of the response is
+     * small (up to the body limit), otherwise aborts the request, which
+     * drops the connection instead of reading a large body only to reuse
+     * it (closing the RestAssured stream would read it to the end).
+     */
+    private void release(final InputStream content, final RequestHandle handle) {
+        if (content == null || handle.isExpired()) {
+            // nothing to read, or aborted already
+            return;
         }
-    }
-
-    private void notifyHealthOnCheck(boolean isOk) {
-        if (entity instanceof Backend) {
-            Backend backend = (Backend)entity;
-            Backend.Health lastHealth = backend.getHealth();
-            LOGGER.debug("Last Health " + entity.compoundId() + " is "+ lastHealth.toString());
-            if (isOk) {
-                backend.setHealth(Backend.Health.HEALTHY);
-            } else {
-                backend.setHealth(Backend.Health.DEAD);
+        try {
+            final byte[] discard = new byte[4096];
+            long remaining = BodyMatcher.LIMIT;
+            int count = 0;
+            while (remaining > 0 && (count = content.read(discard, 0, (int) Math.min(discard.length, remaining))) >= 0) {
+                remaining -= count;
             }
-            if (backend.getHealth()!=lastHealth) {
-                LOGGER.debug("New Health " + entity.compoundId() + " is "+ backend.getHealth().toString());
-                String hostWithPort = backend.getId();
-                if (isOk) {
-                    LOGGER.info(hostWithPort+" is OK");
-                } else {
-                    LOGGER.warn(hostWithPort+" is FAILED");
-                }
-                cache.replace(entity.compoundId(), JsonObject.toJsonString(backend));
+            if (count < 0 || !handle.abort()) {
+                content.close();
             }
-        } else {
-            LOGGER.warn("Entity is NOT Backend");
+        } catch (IOException e) {
+            LOGGER.debug(url+": "+e.getMessage());
         }
     }
 
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.testers;
+
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The backend is healthy if its port accepts a connection; path, status
+ * code and body are ignored.
+ */
+public class TcpConnectTester extends AbstractTester {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    @Override
+    public void check() {
+        try {
+            submit(null).get();
+        } catch (Exception e) {
+            LOGGER.warn(url+" >>> Backend FAIL ("+e.getMessage()+")");
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> submit(ExecutorService executor) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        markStart();
+        try {
+            NioProbeReactor.getInstance().register(
+                    new NioProbeReactor.Probe(NioProbeReactor.addressOf(url), connectionTimeout) {
+                @Override
+                void onConnected(SelectionKey key) {
+                    done(CheckResult.Cause.OK, null);
+                }
+
+                @Override
+                void onDone(final CheckResult.Cause cause, String message) {
+                    if (cause != CheckResult.Cause.OK) {
+                        LOGGER.warn(url+" >>> Backend FAIL ("+(message != null ? message : cause)+")");
+                    }
+                    complete(executor, future, () -> notifyHealthOnCheck(cause));
+                }
+            });
+        } catch (Exception e) {
+            LOGGER.warn(url+" >>> Backend FAIL ("+e.getMessage()+")");
+            complete(executor, future, () -> notifyHealthOnCheck(CheckResult.Cause.ERROR));
+        }
+        return future;
+    }
+
+}
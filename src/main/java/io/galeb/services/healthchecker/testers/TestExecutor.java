@@ -2,6 +2,10 @@ package io.galeb.services.healthchecker.testers;
 
 import io.galeb.core.model.Entity;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
 import javax.cache.Cache;
 
 public interface TestExecutor {
@@ -26,8 +30,14 @@ public interface TestExecutor {
 
     void check();
 
+    default CompletableFuture<Void> submit(ExecutorService executor) {
+        return CompletableFuture.runAsync(this::check, executor);
+    }
+
     default TestExecutor setEntity(Entity entity) { return this; }
 
     default TestExecutor setCache(Cache<String, String> cache) { return this; }
 
+    default TestExecutor onResult(Consumer<CheckResult> listener) { return this; }
+
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.testers;
+
+import static io.galeb.services.healthchecker.HealthChecker.PROP_HEALTHCHECKER_TESTER;
+
+import java.util.function.Supplier;
+
+public enum TesterType {
+    RESTASSURED(RestAssuredTester::new, true),
+    ASYNC(AsyncHttpTester::new, false),
+    RAW(RawHttpTester::new, false),
+    TCP(TcpConnectTester::new, false);
+
+    private final Supplier<TestExecutor> supplier;
+    private final boolean blocking;
+
+    TesterType(final Supplier<TestExecutor> supplier, boolean blocking) {
+        this.supplier = supplier;
+        this.blocking = blocking;
+    }
+
+    /**
+     * Whether a check holds its executor thread until the probe completes.
+     */
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+    public TestExecutor newTester() {
+        return supplier.get();
+    }
+
+    /**
+     * The type that can actually check url: RAW speaks plain HTTP only, so
+     * https backends fall back to ASYNC.
+     */
+    public TesterType forUrl(String url) {
+        if (this == RAW && url != null && url.regionMatches(true, 0, "https:", 0, 6)) {
+            return ASYNC;
+        }
+        return this;
+    }
+
+    /**
+     * Releases the clients shared by the testers, e.g. the reactor threads
+     * of the async client.
+     */
+    public static void closeAll() {
+        AsyncHttpTester.closeClient();
+    }
+
+    public static TesterType fromProperty() {
+        return fromName(System.getProperty(PROP_HEALTHCHECKER_TESTER), RESTASSURED);
+    }
+
+    public static TesterType fromName(String name, final TesterType defaultType) {
+        if (name != null) {
+            for (TesterType type : values()) {
+                if (type.name().equalsIgnoreCase(name.trim())) {
+                    return type;
+                }
+            }
+        }
+        return defaultType;
+    }
+}
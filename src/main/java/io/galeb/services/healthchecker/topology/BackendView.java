@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.topology;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import io.galeb.core.model.Backend;
+
+/**
+ * The few Backend fields the checker needs. It is read with a streaming
+ * parser that skips everything else, and health changes are written back
+ * by rewriting only the health field of the cached document, so the full
+ * entity is never built on the hot path.
+ */
+public class BackendView {
+
+    static final String FIELD_ID = "id";
+    static final String FIELD_PARENT_ID = "parentId";
+    static final String FIELD_HEALTH = "health";
+
+    private final String key;
+    private final String id;
+    private final String parentId;
+    private volatile Backend.Health health;
+
+    public BackendView(String key, String id, String parentId, Backend.Health health) {
+        this.key = key;
+        this.id = id;
+        this.parentId = parentId;
+        this.health = health;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getParentId() {
+        return parentId;
+    }
+
+    public Backend.Health getHealth() {
+        return health;
+    }
+
+    public void setHealth(Backend.Health health) {
+        this.health = health;
+    }
+
+    public static BackendView fromJson(String key, String json) throws IOException {
+        String id = null;
+        String parentId = null;
+        Backend.Health health = Backend.Health.UNKNOWN;
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if (FIELD_ID.equals(name)) {
+                    id = reader.nextString();
+                } else if (FIELD_PARENT_ID.equals(name)) {
+                    parentId = reader.nextString();
+                } else if (FIELD_HEALTH.equals(name)) {
+                    health = toHealth(reader.nextString());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return new BackendView(key, id, parentId, health);
+    }
+
+    /**
+     * Copies the document replacing only its top-level health field.
+     */
+    public static String withHealth(String json, final Backend.Health health) throws IOException {
+        final StringWriter out = new StringWriter(json.length() + 16);
+        boolean found = false;
+        try (JsonReader reader = new JsonReader(new StringReader(json));
+             JsonWriter writer = new JsonWriter(out)) {
+            writer.setSerializeNulls(true);
+            reader.beginObject();
+            writer.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                writer.name(name);
+                if (FIELD_HEALTH.equals(name)) {
+                    reader.skipValue();
+                    writer.value(health.name());
+                    found = true;
+                } else {
+                    copy(reader, writer);
+                }
+            }
+            if (!found) {
+                writer.name(FIELD_HEALTH).value(health.name());
+            }
+            reader.endObject();
+            writer.endObject();
+        }
+        return out.toString();
+    }
+
+    private static void copy(final JsonReader reader, final JsonWriter writer) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                writer.beginObject();
+                while (reader.hasNext()) {
+                    writer.name(reader.nextName());
+                    copy(reader, writer);
+                }
+                reader.endObject();
+                writer.endObject();
+                break;
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                writer.beginArray();
+                while (reader.hasNext()) {
+                    copy(reader, writer);
+                }
+                reader.endArray();
+                writer.endArray();
+                break;
+            case STRING:
+                writer.value(reader.nextString());
+                break;
+            case NUMBER:
+                writer.value(new LazyNumber(reader.nextString()));
+                break;
+            case BOOLEAN:
+                writer.value(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                writer.nullValue();
+                break;
+            default:
+                reader.skipValue();
+        }
+    }
+
+    private static Backend.Health toHealth(String name) {
+        try {
+            return Backend.Health.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return Backend.Health.UNKNOWN;
+        }
+    }
+
+    // keeps the original digits of a number (no double round trip)
+    private static final class LazyNumber extends Number {
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+
+        LazyNumber(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) doubleValue();
+        }
+
+        @Override
+        public long longValue() {
+            return (long) doubleValue();
+        }
+
+        @Override
+        public float floatValue() {
+            return (float) doubleValue();
+        }
+
+        @Override
+        public double doubleValue() {
+            return Double.parseDouble(value);
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+}
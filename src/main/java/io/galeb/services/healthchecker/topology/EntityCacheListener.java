@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.topology;
+
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import javax.cache.configuration.Factory;
+import javax.cache.event.CacheEntryCreatedListener;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryListenerException;
+import javax.cache.event.CacheEntryRemovedListener;
+import javax.cache.event.CacheEntryUpdatedListener;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Forwards JCache entry events of one entity cache to the {@link TopologyModel}.
+ * It calls back into this JVM, so it is not serializable and can only be
+ * registered on the local node (see {@link #localFactory}).
+ */
+class EntityCacheListener implements CacheEntryCreatedListener<String, String>,
+                                     CacheEntryUpdatedListener<String, String>,
+                                     CacheEntryRemovedListener<String, String> {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final BiConsumer<String, String> onPut;
+    private final Consumer<String> onRemove;
+
+    /**
+     * Hands this very listener to the local cache. The factory has to be
+     * Serializable, but a copy of it (e.g. on another node) fails on
+     * create() instead of returning a listener without callbacks.
+     */
+    private static class LocalFactory implements Factory<EntityCacheListener> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient EntityCacheListener listener;
+
+        LocalFactory(final EntityCacheListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public EntityCacheListener create() {
+            if (listener == null) {
+                throw new IllegalStateException(EntityCacheListener.class.getSimpleName() +
+                        " is local to the node that registered it");
+            }
+            return listener;
+        }
+    }
+
+    EntityCacheListener(final BiConsumer<String, String> onPut, final Consumer<String> onRemove) {
+        this.onPut = onPut;
+        this.onRemove = onRemove;
+    }
+
+    static Factory<EntityCacheListener> localFactory(final EntityCacheListener listener) {
+        return new LocalFactory(listener);
+    }
+
+    @Override
+    public void onCreated(Iterable<CacheEntryEvent<? extends String, ? extends String>> events)
+            throws CacheEntryListenerException {
+        put(events);
+    }
+
+    @Override
+    public void onUpdated(Iterable<CacheEntryEvent<? extends String, ? extends String>> events)
+            throws CacheEntryListenerException {
+        put(events);
+    }
+
+    @Override
+    public void onRemoved(Iterable<CacheEntryEvent<? extends String, ? extends String>> events)
+            throws CacheEntryListenerException {
+        events.forEach(event -> onRemove.accept(event.getKey()));
+    }
+
+    private void put(Iterable<CacheEntryEvent<? extends String, ? extends String>> events) {
+        events.forEach(event -> {
+            try {
+                onPut.accept(event.getKey(), event.getValue());
+            } catch (Exception e) {
+                LOGGER.error(event.getKey() + ": " + e.getMessage());
+            }
+        });
+    }
+}
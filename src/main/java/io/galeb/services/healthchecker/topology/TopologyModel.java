@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2014-2015 Globo.com - ATeam
+ * All rights reserved.
+ *
+ * This source is subject to the Apache License, Version 2.0.
+ * Please see the LICENSE file for more information.
+ *
+ * Authors: See AUTHORS file
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.galeb.services.healthchecker.topology;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import javax.cache.Cache;
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
+
+import io.galeb.core.jcache.CacheFactory;
+import io.galeb.core.json.JsonObject;
+import io.galeb.core.model.Backend;
+import io.galeb.core.model.BackendPool;
+import io.galeb.core.model.Rule;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Local view of pools, backends and rules. It is loaded once from the
+ * entity caches and then kept current by cache entry listeners, so readers
+ * never have to scan or parse the caches. The listeners are registered
+ * before the load, and a key changed by an event while the load runs is
+ * not overwritten by the (possibly older) value the load reads.
+ */
+public class TopologyModel {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final TopologyModel INSTANCE = new TopologyModel();
+
+    private final Map<String, BackendPool> pools = new ConcurrentHashMap<>();
+    private final Map<String, BackendView> backends = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, BackendView>> backendsByPool = new ConcurrentHashMap<>();
+    private final Map<String, String> ruleTargets = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> hostsByTarget = new ConcurrentHashMap<>();
+
+    private final Object lifecycle = new Object();
+    private volatile boolean started = false;
+
+    public static TopologyModel getInstance() {
+        return INSTANCE;
+    }
+
+    TopologyModel() {
+        // singleton (package-private for the benchmarks)
+    }
+
+    public TopologyModel start(final CacheFactory cacheFactory) {
+        // not the model lock: the listeners keep applying events while the caches load
+        synchronized (lifecycle) {
+            if (!started) {
+                long start = System.currentTimeMillis();
+                follow(cacheFactory.getCache(BackendPool.class.getName()), this::putPool, this::removePool);
+                follow(cacheFactory.getCache(Backend.class.getName()), this::putBackend, this::removeBackend);
+                follow(cacheFactory.getCache(Rule.class.getName()), this::putRule, this::removeRule);
+                started = true;
+                LOGGER.info(TopologyModel.class.getSimpleName() + ": loaded " + pools.size() + " pools, " +
+                        backends.size() + " backends and " + ruleTargets.size() + " rules (" +
+                        (System.currentTimeMillis() - start) + " ms)");
+            }
+        }
+        return this;
+    }
+
+    public Collection<BackendPool> getPools() {
+        return Collections.unmodifiableCollection(pools.values());
+    }
+
+    public Collection<BackendView> getBackends(String poolId) {
+        final Map<String, BackendView> backendsOfPool = backendsByPool.get(poolId);
+        return backendsOfPool != null ? Collections.unmodifiableCollection(backendsOfPool.values()) :
+                                        Collections.emptyList();
+    }
+
+    public boolean hasBackend(String key) {
+        return backends.containsKey(key);
+    }
+
+    public String getHost(String poolId) {
+        final Map<String, String> hosts = hostsByTarget.get(poolId.toLowerCase());
+        if (hosts != null) {
+            for (String host : hosts.values()) {
+                return host;
+            }
+        }
+        return "";
+    }
+
+    private void follow(final Cache<String, String> cache,
+                        final BiConsumer<String, String> onPut,
+                        final Consumer<String> onRemove) {
+        // keys changed by an event while the load runs (null once it is done)
+        final AtomicReference<Set<String>> changed = new AtomicReference<>(new HashSet<>());
+        final EntityCacheListener listener = new EntityCacheListener(
+                (key, json) -> applyEvent(changed, key, () -> onPut.accept(key, json)),
+                key -> applyEvent(changed, key, () -> onRemove.accept(key)));
+        cache.registerCacheEntryListener(new MutableCacheEntryListenerConfiguration<>(
+                EntityCacheListener.localFactory(listener), null, false, false));
+        cache.forEach(entry -> {
+            try {
+                synchronized (this) {
+                    if (!changed.get().contains(entry.getKey())) {
+                        onPut.accept(entry.getKey(), entry.getValue());
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.error(entry.getKey() + ": " + e.getMessage());
+            }
+        });
+        changed.set(null);
+    }
+
+    private synchronized void applyEvent(final AtomicReference<Set<String>> changed, String key,
+                                         final Runnable change) {
+        final Set<String> keys = changed.get();
+        if (keys != null) {
+            keys.add(key);
+        }
+        change.run();
+    }
+
+    private synchronized void putPool(String key, String json) {
+        pools.put(key, (BackendPool) JsonObject.fromJson(json, BackendPool.class));
+    }
+
+    private synchronized void removePool(String key) {
+        pools.remove(key);
+    }
+
+    private synchronized void putBackend(String key, String json) {
+        final BackendView backend;
+        try {
+            backend = BackendView.fromJson(key, json);
+        } catch (IOException | IllegalStateException e) {
+            LOGGER.error(key + ": " + e.getMessage());
+            return;
+        }
+        if (backend.getParentId() == null) {
+            return;
+        }
+        unindexBackend(key, backends.put(key, backend));
+        backendsByPool.computeIfAbsent(backend.getParentId(), poolId -> new ConcurrentHashMap<>())
+                      .put(key, backend);
+    }
+
+    private synchronized void removeBackend(String key) {
+        unindexBackend(key, backends.remove(key));
+    }
+
+    private void unindexBackend(String key, final BackendView previous) {
+        if (previous != null) {
+            backendsByPool.computeIfPresent(previous.getParentId(), (poolId, backendsOfPool) -> {
+                backendsOfPool.remove(key);
+                return backendsOfPool.isEmpty() ? null : backendsOfPool;
+            });
+        }
+    }
+
+    private synchronized void putRule(String key, String json) {
+        final Rule rule = (Rule) JsonObject.fromJson(json, Rule.class);
+        final String targetId = rule != null ? (String) rule.getProperty(Rule.PROP_TARGET_ID) : null;
+        if (targetId == null || rule.getParentId() == null) {
+            removeRule(key);
+            return;
+        }
+        final String target = targetId.toLowerCase();
+        unindexRule(key, ruleTargets.put(key, target));
+        hostsByTarget.computeIfAbsent(target, t -> new ConcurrentHashMap<>()).put(key, rule.getParentId());
+    }
+
+    private synchronized void removeRule(String key) {
+        unindexRule(key, ruleTargets.remove(key));
+    }
+
+    private void unindexRule(String key, String previousTarget) {
+        if (previousTarget != null) {
+            hostsByTarget.computeIfPresent(previousTarget, (target, hosts) -> {
+                hosts.remove(key);
+                return hosts.isEmpty() ? null : hosts;
+            });
+        }
+    }
+
+}